@@ -0,0 +1,279 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Checks that the steady state processing loop doesn't allocate memory, which
+ * would make the garbage collector pause the audio thread.<br>
+ * <br>
+ * Each processing stage (TDStretch, RateTransposer, FIFOSampleBuffer) and the
+ * whole SoundTouch pipeline is driven with blocks of samples until warmed up,
+ * and then the bytes allocated by the thread while processing a number of
+ * further blocks are counted. The allocation rate is printed in bytes per
+ * second of processed audio, and compared against a budget. The exit status
+ * is 1 if any stage is over the budget, so that the check can be run as a
+ * build step.<br>
+ * <br>
+ * Usage: <code>java com.epsilonlabsllc.soundtouch.AllocationCheck
+ * [-b bytesPerSecond] [-w warmupBlocks] [-n blocks]</code><br>
+ * The default budget is 0 bytes per second. Needs a JVM that counts the
+ * allocated bytes per thread, i.e. whose ThreadMXBean implements
+ * com.sun.management.ThreadMXBean.
+ */
+public class AllocationCheck {
+	private static final int SAMPLE_RATE = 44100;
+
+	private long budget = 0;
+	private int warmupBlocks = 2000;
+	private int blocks = 2000;
+
+	private final com.sun.management.ThreadMXBean threadBean;
+
+	private AllocationCheck(com.sun.management.ThreadMXBean threadBean) {
+		this.threadBean = threadBean;
+	}
+
+	public static void main(String[] args) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		AllocationCheck check;
+		List<Benchmark.Case> cases = new ArrayList<Benchmark.Case>();
+		int i;
+
+		if (!(bean instanceof com.sun.management.ThreadMXBean)
+				|| !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			System.err.println("AllocationCheck : allocated bytes per thread not supported by this JVM");
+			System.exit(2);
+		}
+		check = new AllocationCheck((com.sun.management.ThreadMXBean) bean);
+		check.threadBean.setThreadAllocatedMemoryEnabled(true);
+
+		for (i = 0; i < args.length; i++) {
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("AllocationCheck : missing value for " + args[i]);
+			if (args[i].equals("-b")) {
+				check.budget = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-w")) {
+				check.warmupBlocks = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-n")) {
+				check.blocks = Integer.parseInt(args[++i]);
+			} else {
+				throw new IllegalArgumentException("AllocationCheck : unknown option " + args[i]);
+			}
+		}
+		if (check.blocks < 1 || check.warmupBlocks < 0 || check.budget < 0)
+			throw new IllegalArgumentException("AllocationCheck : invalid settings");
+
+		for (int channels : new int[] { 1, 2 }) {
+			for (boolean floatSamples : new boolean[] { false, true }) {
+				for (boolean circular : new boolean[] { false, true }) {
+					cases.add(new StretchCase(channels, circular, floatSamples));
+					cases.add(new TransposerCase(channels, circular, floatSamples));
+					cases.add(new KernelBenchmarks.BufferCase(channels, "int", circular, floatSamples));
+				}
+				for (String job : new String[] { "tempo", "pitch", "combined" }) {
+					cases.add(new PipelineBenchmarks.SoundTouchCase(job, channels, SAMPLE_RATE, floatSamples));
+				}
+				cases.add(new FlushCase(channels, floatSamples));
+			}
+		}
+
+		System.exit(check.run(cases) ? 0 : 1);
+	}
+
+	/**
+	 * Runs the cases and prints their allocation rates.
+	 *
+	 * @return true if all are within the budget
+	 */
+	private boolean run(List<Benchmark.Case> cases) {
+		boolean passed = true;
+		long bytes, frames, perSecond;
+
+		System.out.println(String.format(Locale.ROOT, "%-30s %-36s %14s %8s", "Stage", "Parameters", "bytes/s",
+				"result"));
+		for (Benchmark.Case c : cases) {
+			c.setUp();
+			try {
+				long[] result = measure(c);
+				bytes = result[0];
+				frames = result[1];
+			} finally {
+				c.tearDown();
+			}
+			perSecond = (long) Math.ceil((double) bytes * SAMPLE_RATE / frames);
+			System.out.println(String.format(Locale.ROOT, "%-30s %-36s %14d %8s", c.getName(), c.getParams(),
+					perSecond, (perSecond <= budget) ? "ok" : "FAIL"));
+			if (perSecond > budget) {
+				passed = false;
+			}
+		}
+		return passed;
+	}
+
+	/**
+	 * Warms up a case and counts the bytes allocated by the measured blocks.
+	 *
+	 * @return the allocated bytes and the processed sample frames
+	 */
+	private long[] measure(Benchmark.Case c) {
+		long[] result = new long[2];
+		long threadId = Thread.currentThread().getId();
+		long start, end, overhead, frames;
+		int i;
+
+		for (i = 0; i < warmupBlocks; i++) {
+			c.run();
+		}
+
+		// what reading the counter costs by itself
+		start = threadBean.getThreadAllocatedBytes(threadId);
+		end = threadBean.getThreadAllocatedBytes(threadId);
+		overhead = end - start;
+
+		frames = 0;
+		start = threadBean.getThreadAllocatedBytes(threadId);
+		for (i = 0; i < blocks; i++) {
+			frames += c.run();
+		}
+		end = threadBean.getThreadAllocatedBytes(threadId);
+
+		result[0] = Math.max(end - start - overhead, 0);
+		result[1] = frames;
+		return result;
+	}
+
+	/**
+	 * TDStretch as a processing stage, changing the tempo.
+	 */
+	static class StretchCase extends Benchmark.Case {
+		private final int channels;
+		private final boolean circular;
+		private final boolean floatSamples;
+		private TDStretch stretch;
+		private int[] input;
+		private int[] output;
+
+		StretchCase(int channels, boolean circular, boolean floatSamples) {
+			super("TDStretch", "ch=" + channels + " " + (circular ? "circular" : "linear") + " "
+					+ KernelBenchmarks.format(floatSamples));
+			this.channels = channels;
+			this.circular = circular;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			stretch = TDStretch.newInstance(circular, floatSamples);
+			stretch.setChannels(channels);
+			stretch.setParameters(SAMPLE_RATE, 0, 0, 8);
+			stretch.setTempo(1.25f);
+			input = KernelBenchmarks.signal(KernelBenchmarks.BLOCK_SIZE, channels, floatSamples, 1);
+			output = new int[channels * KernelBenchmarks.BLOCK_SIZE];
+		}
+
+		@Override
+		protected int run() {
+			stretch.putSamples(input, 0, KernelBenchmarks.BLOCK_SIZE);
+			while (stretch.receiveSamples(output, 0, KernelBenchmarks.BLOCK_SIZE) > 0) {
+				Benchmark.consume(output[0]);
+			}
+			return KernelBenchmarks.BLOCK_SIZE;
+		}
+
+		@Override
+		protected void tearDown() {
+			stretch.close();
+		}
+	}
+
+	/**
+	 * RateTransposer as a processing stage, with the anti-alias filter.
+	 */
+	static class TransposerCase extends Benchmark.Case {
+		private final int channels;
+		private final boolean circular;
+		private final boolean floatSamples;
+		private RateTransposer transposer;
+		private int[] input;
+		private int[] output;
+
+		TransposerCase(int channels, boolean circular, boolean floatSamples) {
+			super("RateTransposer", "ch=" + channels + " " + (circular ? "circular" : "linear") + " "
+					+ KernelBenchmarks.format(floatSamples));
+			this.channels = channels;
+			this.circular = circular;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			transposer = RateTransposer.newInstance(circular, floatSamples);
+			transposer.setChannels(channels);
+			transposer.setRate(0.8f);
+			input = KernelBenchmarks.signal(KernelBenchmarks.BLOCK_SIZE, channels, floatSamples, 1);
+			output = new int[channels * KernelBenchmarks.BLOCK_SIZE];
+		}
+
+		@Override
+		protected int run() {
+			transposer.putSamples(input, 0, KernelBenchmarks.BLOCK_SIZE);
+			while (transposer.receiveSamples(output, 0, KernelBenchmarks.BLOCK_SIZE) > 0) {
+				Benchmark.consume(output[0]);
+			}
+			return KernelBenchmarks.BLOCK_SIZE;
+		}
+
+		@Override
+		protected void tearDown() {
+			transposer.close();
+		}
+	}
+
+	/**
+	 * SoundTouch flushed after every block, as when short sounds are processed
+	 * one after another with the same instance.
+	 */
+	static class FlushCase extends Benchmark.Case {
+		private final int channels;
+		private final boolean floatSamples;
+		private SoundTouch soundTouch;
+		private int[] input;
+		private int[] output;
+
+		FlushCase(int channels, boolean floatSamples) {
+			super("SoundTouch.flush", "ch=" + channels + " " + KernelBenchmarks.format(floatSamples));
+			this.channels = channels;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			soundTouch = new SoundTouch(false, floatSamples);
+			soundTouch.setSampleRate(SAMPLE_RATE);
+			soundTouch.setChannels(channels);
+			soundTouch.setTempo(1.25f);
+			soundTouch.setPitchSemiTones(2);
+			input = KernelBenchmarks.signal(KernelBenchmarks.BLOCK_SIZE, channels, floatSamples, 1);
+			output = new int[channels * KernelBenchmarks.BLOCK_SIZE];
+		}
+
+		@Override
+		protected int run() {
+			soundTouch.putSamples(input, 0, KernelBenchmarks.BLOCK_SIZE);
+			soundTouch.flush();
+			while (soundTouch.receiveSamples(output, 0, KernelBenchmarks.BLOCK_SIZE) > 0) {
+				Benchmark.consume(output[0]);
+			}
+			return KernelBenchmarks.BLOCK_SIZE;
+		}
+
+		@Override
+		protected void tearDown() {
+			soundTouch.close();
+		}
+	}
+}
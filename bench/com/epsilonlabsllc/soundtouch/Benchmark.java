@@ -0,0 +1,199 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the micro-benchmarks of the processing kernels and the throughput
+ * benchmarks of the whole pipeline, and prints the throughput of each in
+ * millions of sample frames per second.<br>
+ * <br>
+ * Each benchmark is first run for a number of warm-up iterations, so that the
+ * kernels are compiled before they are measured, and then for a number of
+ * measured iterations of fixed duration. The mean and the standard deviation
+ * of the measured iterations are printed. The benchmarks live in the package
+ * of the library, so that the protected kernels can be called in isolation.
+ * <br>
+ * <br>
+ * Usage: <code>java com.epsilonlabsllc.soundtouch.Benchmark [-f regex]
+ * [-w warmups] [-i iterations] [-t millis]</code><br>
+ * '-f' selects the benchmarks whose name and parameters contain a match of
+ * the regular expression, e.g. <code>-f "SoundTouch.*ch=2"</code>.
+ */
+public class Benchmark {
+	/**
+	 * One benchmark with a fixed set of parameters.
+	 */
+	public static abstract class Case {
+		private final String name;
+		private final String params;
+
+		/**
+		 * Constructor
+		 *
+		 * @param name
+		 *            name of the benchmarked routine
+		 * @param params
+		 *            description of the parameters
+		 */
+		protected Case(String name, String params) {
+			this.name = name;
+			this.params = params;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getParams() {
+			return params;
+		}
+
+		/**
+		 * Prepares the objects and the input of the benchmark.
+		 */
+		protected abstract void setUp();
+
+		/**
+		 * Runs one operation of the benchmark.
+		 *
+		 * @return number of sample frames processed
+		 */
+		protected abstract int run();
+
+		/**
+		 * Releases what setUp() prepared.
+		 */
+		protected void tearDown() {
+		}
+	}
+
+	// Sink for results of the benchmarked routines, so that the JIT can't
+	// remove the computation as dead code
+	private static volatile long sink;
+
+	/**
+	 * Consumes a result of a benchmarked routine.
+	 */
+	static void consume(long value) {
+		sink += value;
+	}
+
+	static void consume(double value) {
+		sink += Double.doubleToRawLongBits(value);
+	}
+
+	private int warmups = 3;
+	private int iterations = 5;
+	private long iterationMillis = 500;
+	private Pattern filter;
+
+	public static void main(String[] args) {
+		Benchmark benchmark = new Benchmark();
+		List<Case> cases = new ArrayList<Case>();
+		int i;
+
+		for (i = 0; i < args.length; i++) {
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Benchmark : missing value for " + args[i]);
+			if (args[i].equals("-f")) {
+				benchmark.filter = Pattern.compile(args[++i]);
+			} else if (args[i].equals("-w")) {
+				benchmark.warmups = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-i")) {
+				benchmark.iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-t")) {
+				benchmark.iterationMillis = Long.parseLong(args[++i]);
+			} else {
+				throw new IllegalArgumentException("Benchmark : unknown option " + args[i]);
+			}
+		}
+		if (benchmark.iterations < 1 || benchmark.warmups < 0 || benchmark.iterationMillis < 1)
+			throw new IllegalArgumentException("Benchmark : invalid iteration settings");
+
+		KernelBenchmarks.addTo(cases);
+		PipelineBenchmarks.addTo(cases);
+		benchmark.run(cases);
+	}
+
+	/**
+	 * Runs the selected benchmarks and prints their results.
+	 */
+	public void run(List<Case> cases) {
+		System.out.println(String.format(Locale.ROOT, "%-34s %-44s %20s %12s", "Benchmark", "Parameters",
+				"Msamples/s", "ns/op"));
+		for (Case c : cases) {
+			if (filter != null && !filter.matcher(c.getName() + " " + c.getParams()).find())
+				continue;
+			c.setUp();
+			try {
+				run(c);
+			} finally {
+				c.tearDown();
+			}
+		}
+	}
+
+	// Runs and prints one benchmark
+	private void run(Case c) {
+		int i;
+		double mean, deviation, nsPerOp;
+		double[] rates = new double[iterations];
+		long totalOps, totalNanos;
+
+		for (i = 0; i < warmups; i++) {
+			iterate(c, null);
+		}
+
+		totalOps = 0;
+		totalNanos = 0;
+		for (i = 0; i < iterations; i++) {
+			long[] result = new long[3];
+			iterate(c, result);
+			rates[i] = result[1] * 1e3 / result[2];
+			totalOps += result[0];
+			totalNanos += result[2];
+		}
+
+		mean = 0;
+		for (i = 0; i < iterations; i++) {
+			mean += rates[i];
+		}
+		mean /= iterations;
+		deviation = 0;
+		for (i = 0; i < iterations; i++) {
+			deviation += (rates[i] - mean) * (rates[i] - mean);
+		}
+		deviation = (iterations > 1) ? Math.sqrt(deviation / (iterations - 1)) : 0;
+		nsPerOp = (double) totalNanos / totalOps;
+
+		System.out.println(String.format(Locale.ROOT, "%-34s %-44s %10.3f +- %7.3f %12.0f", c.getName(),
+				c.getParams(), mean, deviation, nsPerOp));
+	}
+
+	/**
+	 * Runs operations for one iteration. If 'result' isn't null, the number of
+	 * operations, sample frames and nanoseconds are stored to it.
+	 */
+	private void iterate(Case c, long[] result) {
+		long start, end, deadline, ops, frames;
+
+		ops = 0;
+		frames = 0;
+		start = System.nanoTime();
+		deadline = start + iterationMillis * 1000000L;
+		do {
+			frames += c.run();
+			ops++;
+			end = System.nanoTime();
+		} while (end < deadline);
+
+		if (result != null) {
+			result[0] = ops;
+			result[1] = frames;
+			result[2] = end - start;
+		}
+	}
+}
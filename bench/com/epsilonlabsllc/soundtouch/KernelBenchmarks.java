@@ -0,0 +1,342 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of the processing kernels in isolation: the cross-correlation
+ * and the overlap position seek of {@link TDStretch}, the overlap-add, the
+ * FIR filter, the rate transposer and the sample buffer. The throughput is
+ * counted in the sample frames each kernel goes through per call.
+ */
+public class KernelBenchmarks {
+	// Number of sample frames processed per call by the block based kernels
+	static final int BLOCK_SIZE = 4096;
+
+	private static final int[] SAMPLE_RATES = { 44100, 96000 };
+
+	private static final boolean[] SAMPLE_TYPES = { false, true };
+
+	/**
+	 * Adds the kernel benchmarks to 'cases'.
+	 */
+	public static void addTo(List<Benchmark.Case> cases) {
+		for (int channels : new int[] { 1, 2 }) {
+			for (int sampleRate : SAMPLE_RATES) {
+				for (boolean floatSamples : SAMPLE_TYPES) {
+					cases.add(new CrossCorrelationCase(channels, sampleRate, floatSamples));
+				}
+			}
+		}
+		for (TDStretch.SeekMode mode : new TDStretch.SeekMode[] { TDStretch.SeekMode.FULL,
+				TDStretch.SeekMode.QUICK, TDStretch.SeekMode.FFT, TDStretch.SeekMode.DECIMATED }) {
+			for (int channels : new int[] { 1, 2 }) {
+				for (int sampleRate : SAMPLE_RATES) {
+					for (int seekWindowMs : new int[] { 0, 30 }) {
+						for (boolean floatSamples : SAMPLE_TYPES) {
+							cases.add(new SeekCase(mode, channels, sampleRate, seekWindowMs, floatSamples));
+						}
+					}
+				}
+			}
+		}
+		for (int channels : new int[] { 1, 2, 6 }) {
+			for (boolean floatSamples : SAMPLE_TYPES) {
+				cases.add(new OverlapCase(channels, floatSamples));
+			}
+		}
+		for (int channels : new int[] { 1, 2, 6 }) {
+			for (int length : new int[] { 32, 128 }) {
+				for (boolean floatSamples : SAMPLE_TYPES) {
+					cases.add(new FilterCase(channels, length, floatSamples));
+				}
+			}
+		}
+		for (int channels : new int[] { 1, 2, 6 }) {
+			for (float rate : new float[] { 0.7f, 1.4f }) {
+				for (boolean floatSamples : SAMPLE_TYPES) {
+					cases.add(new TransposeCase(channels, rate, floatSamples));
+				}
+			}
+		}
+		for (int channels : new int[] { 1, 2 }) {
+			for (String input : new String[] { "int", "short", "float", "pcm16" }) {
+				for (boolean circular : new boolean[] { false, true }) {
+					for (boolean floatSamples : SAMPLE_TYPES) {
+						cases.add(new BufferCase(channels, input, circular, floatSamples));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns 'frames' frames of a test signal, a mix of tones and noise, in
+	 * the format of a sample buffer.
+	 */
+	static int[] signal(int frames, int channels, boolean floatSamples, long seed) {
+		int i, ch;
+		double value;
+		Random random = new Random(seed);
+		int[] samples = new int[frames * channels];
+
+		for (i = 0; i < frames; i++) {
+			for (ch = 0; ch < channels; ch++) {
+				value = 0.3 * Math.sin(i * 0.031 * (ch + 1)) + 0.2 * Math.sin(i * 0.0073 + ch) + 0.05
+						* random.nextGaussian();
+				samples[i * channels + ch] = floatSamples ? Float.floatToRawIntBits((float) value)
+						: (int) Math.round(value * 32767);
+			}
+		}
+		return samples;
+	}
+
+	static String format(boolean floatSamples) {
+		return floatSamples ? "float" : "int";
+	}
+
+	/**
+	 * TDStretch.calcCrossCorr at consecutive positions of a seek window.
+	 */
+	static class CrossCorrelationCase extends Benchmark.Case {
+		private final int channels;
+		private final int sampleRate;
+		private final boolean floatSamples;
+		private TDStretch stretch;
+		private int[] ref;
+		private int[] mid;
+		private int position;
+
+		CrossCorrelationCase(int channels, int sampleRate, boolean floatSamples) {
+			super("TDStretch.calcCrossCorr", "ch=" + channels + " rate=" + sampleRate + " " + format(floatSamples));
+			this.channels = channels;
+			this.sampleRate = sampleRate;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			stretch = TDStretch.newInstance(false, floatSamples);
+			stretch.setChannels(channels);
+			stretch.setParameters(sampleRate, 0, 0, 8);
+			stretch.seekChannels = channels;
+			ref = signal(stretch.seekLength + stretch.overlapLength, channels, floatSamples, 1);
+			mid = signal(stretch.overlapLength, channels, floatSamples, 2);
+			position = 0;
+		}
+
+		@Override
+		protected int run() {
+			Benchmark.consume(stretch.calcCrossCorr(ref, channels * position, mid, 0));
+			if (++position >= stretch.seekLength) {
+				position = 0;
+			}
+			return stretch.overlapLength;
+		}
+	}
+
+	/**
+	 * TDStretch.seekBestOverlapPosition over a whole seek window, counted in
+	 * the candidate positions of the window.
+	 */
+	static class SeekCase extends Benchmark.Case {
+		private final TDStretch.SeekMode mode;
+		private final int channels;
+		private final int sampleRate;
+		private final int seekWindowMs;
+		private final boolean floatSamples;
+		private TDStretch stretch;
+		private int[] ref;
+
+		SeekCase(TDStretch.SeekMode mode, int channels, int sampleRate, int seekWindowMs, boolean floatSamples) {
+			super("TDStretch.seekBestOverlapPosition", "mode=" + mode + " ch=" + channels + " rate=" + sampleRate + " seek="
+					+ ((seekWindowMs == 0) ? "auto" : seekWindowMs + "ms") + " " + format(floatSamples));
+			this.mode = mode;
+			this.channels = channels;
+			this.sampleRate = sampleRate;
+			this.seekWindowMs = seekWindowMs;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			int[] mid;
+
+			stretch = TDStretch.newInstance(false, floatSamples);
+			stretch.setChannels(channels);
+			stretch.setSeekMode(mode);
+			stretch.setParameters(sampleRate, 0, seekWindowMs, 8);
+			ref = signal(stretch.seekLength + stretch.overlapLength, channels, floatSamples, 1);
+			mid = signal(stretch.overlapLength, channels, floatSamples, 2);
+			System.arraycopy(mid, 0, stretch.pMidBuffer.getArray(), stretch.pMidBuffer.getOffset(), mid.length);
+		}
+
+		@Override
+		protected int run() {
+			Benchmark.consume(stretch.seekBestOverlapPosition(ref, 0));
+			return stretch.seekLength;
+		}
+	}
+
+	/**
+	 * TDStretch.overlap, the cross-fade of two sequences.
+	 */
+	static class OverlapCase extends Benchmark.Case {
+		private final int channels;
+		private final boolean floatSamples;
+		private TDStretch stretch;
+		private int[] input;
+		private int[] output;
+
+		OverlapCase(int channels, boolean floatSamples) {
+			super("TDStretch.overlap", "ch=" + channels + " rate=44100 " + format(floatSamples));
+			this.channels = channels;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			stretch = TDStretch.newInstance(false, floatSamples);
+			stretch.setChannels(channels);
+			stretch.setParameters(44100, 0, 0, 8);
+			input = signal(stretch.overlapLength, channels, floatSamples, 1);
+			output = new int[channels * stretch.overlapLength];
+		}
+
+		@Override
+		protected int run() {
+			stretch.overlap(output, 0, input, 0, 0);
+			Benchmark.consume(output[0]);
+			return stretch.overlapLength;
+		}
+	}
+
+	/**
+	 * FIRFilter.evaluate through the anti-alias filter.
+	 */
+	static class FilterCase extends Benchmark.Case {
+		private final int channels;
+		private final int length;
+		private final boolean floatSamples;
+		private AAFilter filter;
+		private int[] input;
+		private int[] output;
+
+		FilterCase(int channels, int length, boolean floatSamples) {
+			super("FIRFilter.evaluate", "ch=" + channels + " taps=" + length + " " + format(floatSamples));
+			this.channels = channels;
+			this.length = length;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			filter = new AAFilter(length, floatSamples);
+			filter.setCutoffFreq(0.4);
+			input = signal(BLOCK_SIZE + length, channels, floatSamples, 1);
+			output = new int[input.length];
+		}
+
+		@Override
+		protected int run() {
+			return filter.evaluate(output, 0, input, 0, BLOCK_SIZE + length, channels);
+		}
+	}
+
+	/**
+	 * RateTransposer.transpose, the interpolation without the anti-alias
+	 * filter, counted in input frames.
+	 */
+	static class TransposeCase extends Benchmark.Case {
+		private final int channels;
+		private final float rate;
+		private final boolean floatSamples;
+		private RateTransposer transposer;
+		private int[] input;
+		private int[] output;
+
+		TransposeCase(int channels, float rate, boolean floatSamples) {
+			super("RateTransposer.transpose", "ch=" + channels + " rate=" + rate + " " + format(floatSamples));
+			this.channels = channels;
+			this.rate = rate;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			transposer = RateTransposer.newInstance(false, floatSamples);
+			transposer.setChannels(channels);
+			transposer.setRate(rate);
+			input = signal(BLOCK_SIZE, channels, floatSamples, 1);
+			output = new int[channels * ((int) (BLOCK_SIZE / rate) + 4)];
+		}
+
+		@Override
+		protected int run() {
+			Benchmark.consume(transposer.transpose(output, 0, input, 0, BLOCK_SIZE));
+			return BLOCK_SIZE;
+		}
+	}
+
+	/**
+	 * FIFOSampleBuffer.putSamples followed by receiveSamples of the same
+	 * block, in one of the external sample formats.
+	 */
+	static class BufferCase extends Benchmark.Case {
+		private final int channels;
+		private final String input;
+		private final boolean circular;
+		private final boolean floatSamples;
+		private FIFOSampleBuffer buffer;
+		private int[] ints;
+		private short[] shorts;
+		private float[] floats;
+		private byte[] bytes;
+
+		BufferCase(int channels, String input, boolean circular, boolean floatSamples) {
+			super("FIFOSampleBuffer.put+receive", "ch=" + channels + " io=" + input + " "
+					+ (circular ? "circular" : "linear") + " " + format(floatSamples));
+			this.channels = channels;
+			this.input = input;
+			this.circular = circular;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			int i;
+
+			buffer = circular ? new CircularSampleBuffer(channels, floatSamples) : new FIFOSampleBuffer(channels,
+					floatSamples);
+			ints = signal(BLOCK_SIZE, channels, floatSamples, 1);
+			shorts = new short[ints.length];
+			floats = new float[ints.length];
+			bytes = new byte[2 * ints.length];
+			for (i = 0; i < ints.length; i++) {
+				floats[i] = (float) Math.sin(i * 0.01);
+				shorts[i] = (short) (floats[i] * 32767);
+				bytes[2 * i] = (byte) shorts[i];
+				bytes[2 * i + 1] = (byte) (shorts[i] >> 8);
+			}
+		}
+
+		@Override
+		protected int run() {
+			if (input.equals("int")) {
+				buffer.putSamples(ints, 0, BLOCK_SIZE);
+				buffer.receiveSamples(ints, 0, BLOCK_SIZE);
+			} else if (input.equals("short")) {
+				buffer.putSamples(shorts, 0, BLOCK_SIZE);
+				buffer.receiveSamples(shorts, 0, BLOCK_SIZE);
+			} else if (input.equals("float")) {
+				buffer.putSamples(floats, 0, BLOCK_SIZE);
+				buffer.receiveSamples(floats, 0, BLOCK_SIZE);
+			} else {
+				buffer.putBytes(bytes, 0, BLOCK_SIZE, PCMFormat.PCM_16, ByteOrder.LITTLE_ENDIAN);
+				buffer.receiveBytes(bytes, 0, BLOCK_SIZE, PCMFormat.PCM_16, ByteOrder.LITTLE_ENDIAN);
+			}
+			return BLOCK_SIZE;
+		}
+	}
+}
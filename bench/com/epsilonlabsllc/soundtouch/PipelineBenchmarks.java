@@ -0,0 +1,123 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.List;
+
+/**
+ * End-to-end throughput of {@link SoundTouch}, counted in input sample frames:
+ * tempo change only, pitch change only, and both combined. Also the throughput
+ * of {@link OfflineProcessor} on a sound split to several chunks.
+ */
+public class PipelineBenchmarks {
+	/**
+	 * Adds the pipeline benchmarks to 'cases'.
+	 */
+	public static void addTo(List<Benchmark.Case> cases) {
+		for (String job : new String[] { "tempo", "pitch", "combined" }) {
+			for (int channels : new int[] { 1, 2 }) {
+				for (int sampleRate : new int[] { 44100, 96000 }) {
+					for (boolean floatSamples : new boolean[] { false, true }) {
+						cases.add(new SoundTouchCase(job, channels, sampleRate, floatSamples));
+					}
+				}
+			}
+		}
+		for (int channels : new int[] { 1, 2 }) {
+			cases.add(new OfflineCase(channels, 44100));
+		}
+	}
+
+	/**
+	 * Puts a block of samples to SoundTouch and receives all the processed
+	 * samples.
+	 */
+	static class SoundTouchCase extends Benchmark.Case {
+		private final String job;
+		private final int channels;
+		private final int sampleRate;
+		private final boolean floatSamples;
+		private SoundTouch soundTouch;
+		private int[] input;
+		private int[] output;
+
+		SoundTouchCase(String job, int channels, int sampleRate, boolean floatSamples) {
+			super("SoundTouch." + job, "ch=" + channels + " rate=" + sampleRate + " "
+					+ KernelBenchmarks.format(floatSamples));
+			this.job = job;
+			this.channels = channels;
+			this.sampleRate = sampleRate;
+			this.floatSamples = floatSamples;
+		}
+
+		@Override
+		protected void setUp() {
+			soundTouch = new SoundTouch(false, floatSamples);
+			soundTouch.setSampleRate(sampleRate);
+			soundTouch.setChannels(channels);
+			if (job.equals("tempo")) {
+				soundTouch.setTempo(1.25f);
+			} else if (job.equals("pitch")) {
+				soundTouch.setPitchSemiTones(3);
+			} else {
+				soundTouch.setTempo(0.85f);
+				soundTouch.setPitchSemiTones(-2);
+			}
+			input = KernelBenchmarks.signal(KernelBenchmarks.BLOCK_SIZE, channels, floatSamples, 1);
+			output = new int[channels * KernelBenchmarks.BLOCK_SIZE];
+		}
+
+		@Override
+		protected int run() {
+			soundTouch.putSamples(input, 0, KernelBenchmarks.BLOCK_SIZE);
+			while (soundTouch.receiveSamples(output, 0, KernelBenchmarks.BLOCK_SIZE) > 0) {
+				Benchmark.consume(output[0]);
+			}
+			return KernelBenchmarks.BLOCK_SIZE;
+		}
+
+		@Override
+		protected void tearDown() {
+			soundTouch.close();
+		}
+	}
+
+	/**
+	 * Processes a few seconds of sound with OfflineProcessor, in chunks of
+	 * half a second joined with the default crossfade and alignment lengths.
+	 */
+	static class OfflineCase extends Benchmark.Case {
+		// Length of the processed sound in seconds
+		private static final int SECONDS = 3;
+
+		private final int channels;
+		private final int sampleRate;
+		private OfflineProcessor processor;
+		private float[] input;
+
+		OfflineCase(int channels, int sampleRate) {
+			super("OfflineProcessor", "ch=" + channels + " rate=" + sampleRate + " chunks=" + 2 * SECONDS);
+			this.channels = channels;
+			this.sampleRate = sampleRate;
+		}
+
+		@Override
+		protected void setUp() {
+			int i, n = SECONDS * sampleRate;
+
+			processor = new OfflineProcessor(sampleRate, channels);
+			processor.setTempo(1.25f);
+			processor.setPitch(0.9f);
+			processor.setChunking(sampleRate / 2, sampleRate / 10, sampleRate / 50, sampleRate / 100);
+			input = new float[channels * n];
+			for (i = 0; i < channels * n; i++) {
+				input[i] = (float) (0.5 * Math.sin(2 * Math.PI * 440 * (i / channels) / sampleRate + i % channels));
+			}
+		}
+
+		@Override
+		protected int run() {
+			float[] output = processor.process(input, 0, input.length / channels);
+			Benchmark.consume(output.length);
+			return input.length / channels;
+		}
+	}
+}
@@ -11,13 +11,34 @@ public class AAFilter {
 
 	// num of filter taps
 	protected int length;
+
+	// Work memory for calculating the coefficients, reused while 'length'
+	// doesn't change
+	private double[] work;
+	private SampleVector coeffs;
+
+	// Pool the coefficient array is taken from, null = allocate it directly
+	private SampleBufferPool bufferPool;
+
+	// Sink of the coefficient calculation measurements, null = nothing is
+	// measured
+	private MetricsSink metrics;
 	
 	/**
 	 * Constructor
 	 * @param len number of filter taps
 	 */
 	public AAFilter(int len) {
-		pFIR = FIRFilter.newInstance();
+		this(len, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param len number of filter taps
+	 * @param floatSamples true to filter floating point samples
+	 */
+	public AAFilter(int len, boolean floatSamples) {
+		pFIR = FIRFilter.newInstance(floatSamples);
 		cutoffFreq = 0.5;
 		setLength(len);
 	}
@@ -30,16 +51,23 @@ public class AAFilter {
 		double cntTemp, temp, tempCoeff, h, w;
 		double fc2, wc;
 		double scaleCoeff, sum;
-		double[] work;
-		SampleVector coeffs;
+		long start;
 
 		assert (length >= 2);
 		assert (length % 4 == 0);
 		assert (cutoffFreq >= 0);
 		assert (cutoffFreq <= 0.5);
 
-		work = new double[length];
-		coeffs = new SampleVector(length);
+		start = (metrics != null) ? System.nanoTime() : 0;
+		if (work == null || work.length != length) {
+			work = new double[length];
+		}
+		if (coeffs == null || coeffs.size() != length) {
+			if (coeffs != null) {
+				SampleBufferPool.recycle(bufferPool, coeffs.getArray());
+			}
+			coeffs = new SampleVector(SampleBufferPool.newArray(bufferPool, length), length);
+		}
 
 		fc2 = 2.0 * cutoffFreq;
 		wc = PI * fc2;
@@ -88,6 +116,10 @@ public class AAFilter {
 		// Set coefficients. Use divide factor 14 => divide result by 2^14 =
 		// 16384
 		pFIR.setCoefficients(coeffs, length, 14);
+
+		if (metrics != null) {
+			metrics.filterDesigned(length, cutoffFreq, System.nanoTime() - start);
+		}
 	}
 
 	/**
@@ -113,10 +145,68 @@ public class AAFilter {
 		return pFIR.evaluate(dest, src, numChannels);
 	}
 
+	/**
+	 * Passes arguements and call to pFIR.evaluate()
+	 * @param dest
+	 * @param destOffset
+	 * @param src
+	 * @param srcOffset
+	 * @param numSamples
+	 * @param numChannels
+	 * @return
+	 */
+	public int evaluate(int[] dest, int destOffset, int[] src, int srcOffset, int numSamples, int numChannels) {
+		return pFIR.evaluate(dest, destOffset, src, srcOffset, numSamples, numChannels);
+	}
+
 	public int getLength() {
 		return pFIR.getLength();
 	}
 
+	/**
+	 * Sets the pool the coefficient array is taken from and returned to. If
+	 * <code>null</code>, the array is allocated directly.
+	 * 
+	 * @param pool
+	 *            the pool, or <code>null</code>
+	 */
+	public void setBufferPool(SampleBufferPool pool) {
+		bufferPool = pool;
+	}
+
+	/**
+	 * Sets the sink of the coefficient calculation measurements.
+	 * 
+	 * @param sink
+	 *            the sink, or <code>null</code> to measure nothing
+	 */
+	public void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+	}
+
+	/**
+	 * Sets the executor for filtering long blocks of samples in parallel.
+	 * 
+	 * @param execution
+	 *            the executor, or <code>null</code> to filter on the calling
+	 *            thread
+	 */
+	public void setParallelExecution(ParallelExecution execution) {
+		pFIR.setParallelExecution(execution);
+	}
+
+	/**
+	 * Returns the work memory to the buffer pool. It is allocated again if the
+	 * coefficients are recalculated.
+	 */
+	public void close() {
+		if (coeffs != null) {
+			SampleBufferPool.recycle(bufferPool, coeffs.getArray());
+		}
+		coeffs = null;
+		work = null;
+	}
+
 	/**
 	 * Sets number of FIR filter taps, i.e. ~filter complexity
 	 * 
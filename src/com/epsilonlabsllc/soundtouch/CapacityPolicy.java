@@ -0,0 +1,107 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Controls how a {@link FIFOSampleBuffer} allocates its memory. All capacities
+ * are in samples (per channel).
+ */
+public class CapacityPolicy {
+	/**
+	 * Default policy: 32 samples initially, doubling when more room is needed,
+	 * no maximum capacity and no trimming.
+	 */
+	public static final CapacityPolicy DEFAULT = new CapacityPolicy(2.0f, 32, 0, 0);
+
+	// Factor by which the capacity is at least multiplied when the buffer grows
+	private final float growthFactor;
+
+	// Capacity allocated up front
+	private final int initialCapacity;
+
+	// Maximum capacity, 0 = unlimited
+	private final int maxCapacity;
+
+	// Number of capacity checks after which the buffer is trimmed, 0 = never
+	private final int trimInterval;
+
+	/**
+	 * Constructor
+	 *
+	 * @param growthFactor
+	 *            factor by which the capacity is at least multiplied when the
+	 *            buffer has to grow, 1.0 = grow only by the amount required
+	 * @param initialCapacity
+	 *            capacity to allocate up front
+	 * @param maxCapacity
+	 *            maximum capacity, 0 = unlimited. Putting more samples to the
+	 *            buffer than this throws an <code>IllegalStateException</code>
+	 * @param trimInterval
+	 *            when nonzero, after this many insertions the buffer is shrunk
+	 *            to the largest amount of samples it needed during them (but
+	 *            not below 'initialCapacity'), if that frees at least half of
+	 *            the buffer
+	 */
+	public CapacityPolicy(float growthFactor, int initialCapacity, int maxCapacity, int trimInterval) {
+		if (growthFactor < 1.0f)
+			throw new IllegalArgumentException("CapacityPolicy : growth factor must be at least 1");
+		if (initialCapacity < 0 || maxCapacity < 0 || trimInterval < 0)
+			throw new IllegalArgumentException("CapacityPolicy : capacities must not be negative");
+		if (maxCapacity != 0 && initialCapacity > maxCapacity)
+			throw new IllegalArgumentException("CapacityPolicy : initial capacity exceeds maximum capacity");
+
+		this.growthFactor = growthFactor;
+		this.initialCapacity = initialCapacity;
+		this.maxCapacity = maxCapacity;
+		this.trimInterval = trimInterval;
+	}
+
+	public float getGrowthFactor() {
+		return growthFactor;
+	}
+
+	public int getInitialCapacity() {
+		return initialCapacity;
+	}
+
+	public int getMaxCapacity() {
+		return maxCapacity;
+	}
+
+	public int getTrimInterval() {
+		return trimInterval;
+	}
+
+	/**
+	 * Checks that a buffer may hold 'capacityRequirement' samples.
+	 *
+	 * @param capacityRequirement
+	 *            number of samples the buffer must have room for
+	 * @throws IllegalStateException
+	 *             if it exceeds the maximum capacity
+	 */
+	void checkCapacity(int capacityRequirement) {
+		if (maxCapacity != 0 && capacityRequirement > maxCapacity)
+			throw new IllegalStateException("FIFOSampleBuffer : maximum capacity exceeded");
+	}
+
+	/**
+	 * Calculates the capacity a buffer should grow to.
+	 *
+	 * @param capacity
+	 *            current capacity
+	 * @param capacityRequirement
+	 *            number of samples the buffer must have room for
+	 * @return the new capacity, at least 'capacityRequirement'
+	 */
+	int getNewCapacity(int capacity, int capacityRequirement) {
+		long grown;
+
+		checkCapacity(capacityRequirement);
+
+		grown = (long) (capacity * (double) growthFactor);
+		if (grown < capacityRequirement)
+			grown = capacityRequirement;
+		if (maxCapacity != 0 && grown > maxCapacity)
+			grown = maxCapacity;
+		return (int) grown;
+	}
+}
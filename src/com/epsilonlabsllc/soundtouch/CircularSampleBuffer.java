@@ -0,0 +1,487 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link FIFOSampleBuffer} that stores its samples in a circular buffer with
+ * a power-of-two capacity. Removing samples from the beginning of the buffer
+ * only advances the read position, and new samples are written after the last
+ * sample, wrapping around to the beginning of the array, so the unread samples
+ * don't need to be moved back to the beginning of the array when new samples
+ * are put to the buffer.<br>
+ * <br>
+ * {@link #ptrBeginOffset()} and {@link #ptrEndOffset(int)} return contiguous
+ * regions of the array; when the requested region would wrap around the end of
+ * the array, the samples are first rotated to the beginning of the array.
+ * {@link #numContiguousSamples()} tells how many samples can be read from
+ * {@link #ptrBeginOffset()} without that happening. The put and receive
+ * methods for sample arrays and PCM bytes copy or convert the samples in two
+ * parts across the end of the array instead.
+ */
+public class CircularSampleBuffer extends FIFOSampleBuffer {
+	/**
+	 * Constructor
+	 * @param numChannels number of channels (1 for mono, 2 for stereo)
+	 */
+	public CircularSampleBuffer(int numChannels) {
+		super(numChannels);
+	}
+
+	/**
+	 * Constructor
+	 * @param numChannels number of channels (1 for mono, 2 for stereo)
+	 * @param floatSamples true if the buffer holds floating point samples
+	 */
+	public CircularSampleBuffer(int numChannels, boolean floatSamples) {
+		super(numChannels, floatSamples);
+	}
+
+	/**
+	 * Returns the smallest power of two that is not smaller than 'value'.
+	 */
+	static int nextPowerOfTwo(int value) {
+		int result = 1;
+		while (result < value) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Ensures that the buffer has capacity for _at least_
+	 * 'capacityRequirement' samples. The capacity is always a power of two.
+	 * Unlike {@link FIFOSampleBuffer}, the buffer isn't rewound when no
+	 * reallocation is needed.
+	 */
+	@Override
+	protected void ensureCapacity(int capacityRequirement) {
+		int capacity = getCapacity();
+		capacityPolicy.checkCapacity(capacityRequirement);
+		if (capacityRequirement > capacity) {
+			reallocate(capacityPolicy.getNewCapacity(capacity, capacityRequirement));
+		} else if ((capacity & (capacity - 1)) != 0) {
+			reallocate(capacity);
+		} else {
+			trimIfIdle(capacityRequirement);
+		}
+		if (metrics != null) {
+			metrics.bufferFill(this, capacityRequirement, getCapacity());
+		}
+	}
+
+	/**
+	 * Moves the samples to a new array of 'newCapacity' samples, rounded up to
+	 * a power of two, beginning at index 0. Note that because of the rounding
+	 * the allocated capacity may exceed the maximum capacity of the capacity
+	 * policy; {@link #ensureCapacity(int)} still refuses to store more samples
+	 * than the maximum.
+	 */
+	@Override
+	protected void reallocate(int newCapacity) {
+		int[] temp;
+		int oldCapacity;
+		long start;
+
+		start = (metrics != null) ? System.nanoTime() : 0;
+		oldCapacity = getCapacity();
+		newCapacity = nextPowerOfTwo(newCapacity);
+		temp = SampleBufferPool.newArray(bufferPool, newCapacity * channels);
+		if (buffer != null) {
+			if (samplesInBuffer != 0) {
+				copyOut(temp, 0, samplesInBuffer);
+			}
+			SampleBufferPool.recycle(bufferPool, buffer.getArray());
+		}
+		buffer = new SampleVector(temp);
+		sizeInBytes = newCapacity * channels * SAMPLE_TYPE_SIZE;
+		bufferPos = 0;
+		if (metrics != null) {
+			metrics.bufferReallocated(this, oldCapacity, newCapacity, System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Copies 'num' samples from the beginning of the buffer to 'output',
+	 * taking the wrap-around into account. Doesn't remove the samples.
+	 */
+	private void copyOut(int[] output, int offset, int num) {
+		int toEnd = getCapacity() - bufferPos;
+		int first = (num < toEnd) ? num : toEnd;
+		int[] array = buffer.getArray();
+		int base = buffer.getOffset();
+
+		Util.memcpy(output, offset, array, base + bufferPos * channels, first * channels);
+		if (num > first) {
+			Util.memcpy(output, offset + first * channels, array, base, (num - first) * channels);
+		}
+	}
+
+	/**
+	 * Returns the number of samples that can be read from
+	 * {@link #ptrBeginOffset()} without wrapping around the end of the array,
+	 * i.e. without {@link #ptrBeginOffset()} having to rotate the buffer.
+	 *
+	 * @return number of contiguous samples at the beginning of the buffer
+	 */
+	public int numContiguousSamples() {
+		int toEnd = getCapacity() - bufferPos;
+		return (samplesInBuffer < toEnd) ? samplesInBuffer : toEnd;
+	}
+
+	/**
+	 * Returns the index of the first sample in {@link #getArray()}. All the
+	 * samples in the buffer are contiguous from this index on; if they
+	 * currently wrap around the end of the array, they are first rotated to
+	 * the beginning of the array.
+	 */
+	@Override
+	int ptrBeginOffset() {
+		if (numContiguousSamples() < samplesInBuffer) {
+			rewind();
+		}
+		return buffer.getOffset() + bufferPos * channels;
+	}
+
+	/**
+	 * Returns the index in {@link #getArray()} where new samples are to be
+	 * inserted. There's room for 'slackCapacity' contiguous samples from this
+	 * index on; if the free space wraps around the end of the array, the
+	 * samples are first rotated to the beginning of the array.
+	 */
+	@Override
+	int ptrEndOffset(int slackCapacity) {
+		int capacity, end;
+
+		ensureCapacity(samplesInBuffer + slackCapacity);
+		capacity = getCapacity();
+		end = bufferPos + samplesInBuffer;
+		if (end >= capacity) {
+			// the used part already wraps, so the free space is contiguous
+			end -= capacity;
+		} else if (end + slackCapacity > capacity) {
+			rewind();
+			end = samplesInBuffer;
+		}
+		return buffer.getOffset() + end * channels;
+	}
+
+	/**
+	 * Ensures room for 'numSamples' more samples and returns the position of
+	 * the sample after the last one, in samples from the beginning of the
+	 * array. The free space may wrap around the end of the array.
+	 */
+	private int endPos(int numSamples) {
+		ensureCapacity(samplesInBuffer + numSamples);
+		return (bufferPos + samplesInBuffer) & (getCapacity() - 1);
+	}
+
+	/**
+	 * Returns how many of 'numSamples' samples fit between position 'pos' and
+	 * the end of the array.
+	 */
+	private int numContiguous(int pos, int numSamples) {
+		int toEnd = getCapacity() - pos;
+		return (numSamples < toEnd) ? numSamples : toEnd;
+	}
+
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
+		int end, first;
+		int[] array;
+
+		end = endPos(numSamples);
+		first = numContiguous(end, numSamples);
+		array = buffer.getArray();
+
+		Util.memcpy(array, buffer.getOffset() + end * channels, samples, offset, first * channels);
+		if (numSamples > first) {
+			Util.memcpy(array, buffer.getOffset(), samples, offset + first * channels, (numSamples - first) * channels);
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	/**
+	 * Converts the samples in two parts when the free space wraps around the
+	 * end of the array, instead of rotating the buffer.
+	 */
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		int end, first, base;
+		int[] array;
+
+		end = endPos(numSamples);
+		first = numContiguous(end, numSamples);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		if (floatSamples) {
+			Util.shortToFloatBits(array, base + end * channels, samples, offset, first * channels);
+			if (numSamples > first) {
+				Util.shortToFloatBits(array, base, samples, offset + first * channels, (numSamples - first) * channels);
+			}
+		} else {
+			Util.shortToInt(array, base + end * channels, samples, offset, first * channels);
+			if (numSamples > first) {
+				Util.shortToInt(array, base, samples, offset + first * channels, (numSamples - first) * channels);
+			}
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	/**
+	 * Converts the samples in two parts when the free space wraps around the
+	 * end of the array, instead of rotating the buffer.
+	 */
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		int end, first, base;
+		int[] array;
+
+		end = endPos(numSamples);
+		first = numContiguous(end, numSamples);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		if (floatSamples) {
+			Util.floatToBits(array, base + end * channels, samples, offset, first * channels);
+			if (numSamples > first) {
+				Util.floatToBits(array, base, samples, offset + first * channels, (numSamples - first) * channels);
+			}
+		} else {
+			Util.floatToInt(array, base + end * channels, samples, offset, first * channels);
+			if (numSamples > first) {
+				Util.floatToInt(array, base, samples, offset + first * channels, (numSamples - first) * channels);
+			}
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	/**
+	 * Decodes the samples in two parts when the free space wraps around the
+	 * end of the array, instead of rotating the buffer.
+	 */
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		int end, first, base;
+		int[] array;
+		boolean bigEndian = (order == ByteOrder.BIG_ENDIAN);
+
+		end = endPos(numSamples);
+		first = numContiguous(end, numSamples);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		format.decode(array, base + end * channels, data, offset, first * channels, bigEndian, floatSamples);
+		if (numSamples > first) {
+			format.decode(array, base, data, offset + first * channels * format.getBytesPerSample(),
+					(numSamples - first) * channels, bigEndian, floatSamples);
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	/**
+	 * Decodes the samples in two parts when the free space wraps around the
+	 * end of the array, instead of rotating the buffer.
+	 */
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		int numSamples, end, first, base;
+		int[] array;
+
+		numSamples = data.remaining() / (format.getBytesPerSample() * channels);
+		end = endPos(numSamples);
+		first = numContiguous(end, numSamples);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		// each part advances the position of 'data'
+		format.decode(array, base + end * channels, data, first * channels, floatSamples);
+		if (numSamples > first) {
+			format.decode(array, base, data, (numSamples - first) * channels, floatSamples);
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	@Override
+	public int receiveSamples(int[] output, int offset, int maxSamples) {
+		int num;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+		copyOut(output, offset, num);
+		return receiveSamples(num);
+	}
+
+	/**
+	 * Converts the samples in two parts when they wrap around the end of the
+	 * array, instead of rotating the buffer.
+	 */
+	@Override
+	public int receiveSamples(short[] output, int offset, int maxSamples) {
+		int num, first, base;
+		int[] array;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+		first = numContiguous(bufferPos, num);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		if (floatSamples) {
+			Util.floatBitsToShort(output, offset, array, base + bufferPos * channels, first * channels);
+			if (num > first) {
+				Util.floatBitsToShort(output, offset + first * channels, array, base, (num - first) * channels);
+			}
+		} else {
+			Util.intToShort(output, offset, array, base + bufferPos * channels, first * channels);
+			if (num > first) {
+				Util.intToShort(output, offset + first * channels, array, base, (num - first) * channels);
+			}
+		}
+		return receiveSamples(num);
+	}
+
+	/**
+	 * Converts the samples in two parts when they wrap around the end of the
+	 * array, instead of rotating the buffer.
+	 */
+	@Override
+	public int receiveSamples(float[] output, int offset, int maxSamples) {
+		int num, first, base;
+		int[] array;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+		first = numContiguous(bufferPos, num);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		if (floatSamples) {
+			Util.bitsToFloat(output, offset, array, base + bufferPos * channels, first * channels);
+			if (num > first) {
+				Util.bitsToFloat(output, offset + first * channels, array, base, (num - first) * channels);
+			}
+		} else {
+			Util.intToFloat(output, offset, array, base + bufferPos * channels, first * channels);
+			if (num > first) {
+				Util.intToFloat(output, offset + first * channels, array, base, (num - first) * channels);
+			}
+		}
+		return receiveSamples(num);
+	}
+
+	/**
+	 * Encodes the samples in two parts when they wrap around the end of the
+	 * array, instead of rotating the buffer.
+	 */
+	@Override
+	public int receiveBytes(byte[] output, int offset, int maxSamples, PCMFormat format, ByteOrder order) {
+		int num, first, base;
+		int[] array;
+		boolean bigEndian = (order == ByteOrder.BIG_ENDIAN);
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+		first = numContiguous(bufferPos, num);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		format.encode(output, offset, array, base + bufferPos * channels, first * channels, bigEndian, floatSamples);
+		if (num > first) {
+			format.encode(output, offset + first * channels * format.getBytesPerSample(), array, base,
+					(num - first) * channels, bigEndian, floatSamples);
+		}
+		return receiveSamples(num);
+	}
+
+	/**
+	 * Encodes the samples in two parts when they wrap around the end of the
+	 * array, instead of rotating the buffer.
+	 */
+	@Override
+	public int receiveBytes(ByteBuffer output, PCMFormat format) {
+		int num, first, base;
+		int[] array;
+
+		num = output.remaining() / (format.getBytesPerSample() * channels);
+		num = (num > samplesInBuffer) ? samplesInBuffer : num;
+		first = numContiguous(bufferPos, num);
+		array = buffer.getArray();
+		base = buffer.getOffset();
+
+		// each part advances the position of 'output'
+		format.encode(output, array, base + bufferPos * channels, first * channels, floatSamples);
+		if (num > first) {
+			format.encode(output, array, base, (num - first) * channels, floatSamples);
+		}
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(int maxSamples) {
+		if (maxSamples >= samplesInBuffer) {
+			int temp;
+
+			temp = samplesInBuffer;
+			samplesInBuffer = 0;
+			bufferPos = 0;
+			return temp;
+		}
+
+		samplesInBuffer -= maxSamples;
+		bufferPos = (bufferPos + maxSamples) & (getCapacity() - 1);
+
+		return maxSamples;
+	}
+
+	/**
+	 * Rotates the samples so that the first sample is at the beginning of the
+	 * array.
+	 */
+	@Override
+	void rewind() {
+		int[] array;
+		int base, length, shift;
+		long start;
+
+		if (buffer == null || bufferPos == 0) {
+			return;
+		}
+		if (numContiguousSamples() == samplesInBuffer) {
+			super.rewind();
+			return;
+		}
+
+		// the samples wrap around the end of the array: rotate the whole
+		// array left by 'bufferPos' samples, in place
+		start = (metrics != null) ? System.nanoTime() : 0;
+		array = buffer.getArray();
+		base = buffer.getOffset();
+		length = getCapacity() * channels;
+		shift = bufferPos * channels;
+		reverse(array, base, base + shift);
+		reverse(array, base + shift, base + length);
+		reverse(array, base, base + length);
+		bufferPos = 0;
+		if (metrics != null) {
+			// each sample is moved by two of the three reversals
+			metrics.bufferRewound(this, 2 * length * SAMPLE_TYPE_SIZE, System.nanoTime() - start);
+		}
+	}
+
+	private static void reverse(int[] array, int from, int to) {
+		int temp;
+
+		for (to--; from < to; from++, to--) {
+			temp = array[from];
+			array[from] = array[to];
+			array[to] = temp;
+		}
+	}
+
+	@Override
+	public void setChannels(int numChannels) {
+		rewind();
+		super.setChannels(numChannels);
+		// keep the capacity a power of two in terms of samples
+		ensureCapacity(samplesInBuffer);
+	}
+}
@@ -0,0 +1,152 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Strategy for calculating the normalized cross-correlation that
+ * {@link TDStretch} maximizes when it seeks the best overlapping position,
+ * the counterpart of the MMX/SSE versions of the routine in the original
+ * SoundTouch. Implementations are stateless, so one instance can be shared by
+ * several {@link TDStretch} instances.<br>
+ * <br>
+ * The integer implementations return values of the same scale, so they can
+ * be exchanged without affecting the seeking heuristics.
+ */
+public abstract class CrossCorrelation {
+	/**
+	 * Calculates the sum of the products of the 'numValues' samples at m[mo]
+	 * and those at c[co].
+	 * 
+	 * @param m
+	 *            samples at the candidate mixing position
+	 * @param mo
+	 *            index of the first sample in 'm'
+	 * @param c
+	 *            samples to compare against
+	 * @param co
+	 *            index of the first sample in 'c'
+	 * @param numValues
+	 *            number of values to correlate, i.e. channels * overlap
+	 *            length; divisible by 4
+	 * @param dividerBits
+	 *            the sums of integer samples are divided by 2^dividerBits to
+	 *            prevent overflows; ignored for floating point samples
+	 * @return the cross-correlation, not normalized
+	 */
+	protected abstract double calcCorr(final int[] m, final int mo, final int[] c, final int co, int numValues,
+			int dividerBits);
+
+	/**
+	 * Calculates the sum of the squares of the 'numValues' samples at m[mo],
+	 * scaled like the result of calcCorr for 'windowValues' values. The sum
+	 * must be the sum of the values for the individual samples, so that it can
+	 * be updated incrementally when the window slides.
+	 * 
+	 * @param m
+	 *            the samples
+	 * @param mo
+	 *            index of the first sample in 'm'
+	 * @param numValues
+	 *            number of samples
+	 * @param windowValues
+	 *            number of values in the whole correlation window
+	 * @param dividerBits
+	 *            see calcCorr
+	 * @return the energy of the samples
+	 */
+	protected abstract double calcNorm(final int[] m, final int mo, int numValues, int windowValues, int dividerBits);
+
+	/**
+	 * Calculates the cross-correlation of the 'numValues' samples at m[mo]
+	 * against those at c[co], normalized by the energy of the samples at
+	 * m[mo].
+	 * 
+	 * @param m
+	 *            samples at the candidate mixing position
+	 * @param mo
+	 *            index of the first sample in 'm'
+	 * @param c
+	 *            samples to compare against
+	 * @param co
+	 *            index of the first sample in 'c'
+	 * @param numValues
+	 *            number of values to correlate, i.e. channels * overlap
+	 *            length; divisible by 4
+	 * @param dividerBits
+	 *            see calcCorr
+	 * @return the normalized cross-correlation
+	 */
+	public double calcCrossCorr(final int[] m, final int mo, final int[] c, final int co, int numValues,
+			int dividerBits) {
+		double norm = calcNorm(m, mo, numValues, numValues, dividerBits);
+		return calcCorr(m, mo, c, co, numValues, dividerBits) / Math.sqrt((norm < 1e-9) ? 1.0 : norm);
+	}
+
+	/**
+	 * Calculates the normalized cross-correlations of the samples at c[co]
+	 * against the samples at 'count' consecutive positions m[mo + channels *
+	 * i]. The energy of the samples at m is updated incrementally from one
+	 * position to the next by adding the energy of the entering sample frame
+	 * and subtracting that of the leaving one, so that only the
+	 * cross-correlation term is recalculated for every position.
+	 * 
+	 * @param m
+	 *            samples at the candidate mixing positions
+	 * @param mo
+	 *            index of the first sample of the first position in 'm'
+	 * @param c
+	 *            samples to compare against
+	 * @param co
+	 *            index of the first sample in 'c'
+	 * @param channels
+	 *            number of channels
+	 * @param numValues
+	 *            number of values to correlate, i.e. channels * overlap
+	 *            length; divisible by 4
+	 * @param count
+	 *            number of positions
+	 * @param dividerBits
+	 *            see calcCorr
+	 * @param result
+	 *            array where the cross-correlation of position i is stored at
+	 *            index i
+	 */
+	public void calcCrossCorrs(final int[] m, final int mo, final int[] c, final int co, int channels, int numValues,
+			int count, int dividerBits, double[] result) {
+		int i, pos;
+		double norm;
+
+		assert (result.length >= count);
+		if (count <= 0)
+			return;
+
+		norm = calcNorm(m, mo, numValues, numValues, dividerBits);
+		for (i = 0; i < count; i++) {
+			pos = mo + channels * i;
+			if (i > 0) {
+				// cancel the first frame of the previous position, add the
+				// last frame of this one
+				norm -= calcNorm(m, pos - channels, channels, numValues, dividerBits);
+				norm += calcNorm(m, pos + numValues - channels, channels, numValues, dividerBits);
+			}
+			result[i] = calcCorr(m, pos, c, co, numValues, dividerBits) / Math.sqrt((norm < 1e-9) ? 1.0 : norm);
+		}
+	}
+
+	/**
+	 * Use this function instead of "new" operator to create a new instance of
+	 * this class. This function automatically chooses the fastest available
+	 * implementation for the sample format.
+	 * 
+	 * @param floatSamples
+	 *            true for floating point samples
+	 * @return a new <code>CrossCorrelation</code>
+	 */
+	public static CrossCorrelation newInstance(boolean floatSamples) {
+		if (floatSamples) {
+			return new CrossCorrelationFloat();
+		}
+		if (SoundTouchSettings.SOUNDTOUCH_ALLOW_INT32_CROSSCORR) {
+			return new CrossCorrelationInt32();
+		}
+		return new CrossCorrelationInteger();
+	}
+}
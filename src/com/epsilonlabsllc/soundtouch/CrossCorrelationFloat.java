@@ -0,0 +1,45 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Cross-correlation routine for floating point samples, stored as the raw bit
+ * patterns of floats. Uses four independent partial sums so that consecutive
+ * additions don't have to wait for each other.
+ */
+public class CrossCorrelationFloat extends CrossCorrelation {
+	@Override
+	protected double calcCorr(final int[] m, final int mo, final int[] c, final int co, int numValues,
+			int dividerBits) {
+		double corr0, corr1, corr2, corr3;
+		int i;
+
+		assert (mo + numValues <= m.length);
+		assert (co + numValues <= c.length);
+
+		corr0 = corr1 = corr2 = corr3 = 0;
+		for (i = 0; i < numValues; i += 4) {
+			final int pm = mo + i;
+			final int pc = co + i;
+			corr0 += Float.intBitsToFloat(m[pm]) * Float.intBitsToFloat(c[pc]);
+			corr1 += Float.intBitsToFloat(m[pm + 1]) * Float.intBitsToFloat(c[pc + 1]);
+			corr2 += Float.intBitsToFloat(m[pm + 2]) * Float.intBitsToFloat(c[pc + 2]);
+			corr3 += Float.intBitsToFloat(m[pm + 3]) * Float.intBitsToFloat(c[pc + 3]);
+		}
+		return (corr0 + corr1) + (corr2 + corr3);
+	}
+
+	@Override
+	protected double calcNorm(final int[] m, final int mo, int numValues, int windowValues, int dividerBits) {
+		double norm;
+		float mi;
+		int i;
+
+		assert (mo >= 0 && mo + numValues <= m.length);
+
+		norm = 0;
+		for (i = 0; i < numValues; i++) {
+			mi = Float.intBitsToFloat(m[mo + i]);
+			norm += mi * mi;
+		}
+		return norm;
+	}
+}
@@ -0,0 +1,52 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Cross-correlation routine for 16-bit integer samples that accumulates in
+ * 32-bit integers. The loops are plain reductions over contiguous arrays,
+ * which the JIT compiler can vectorize.<br>
+ * <br>
+ * Each product is divided by a power of two large enough that the sums of
+ * the products of a correlation window of 16-bit samples can't overflow, and
+ * the sums are scaled back to the scale of {@link CrossCorrelationInteger}.
+ */
+public class CrossCorrelationInt32 extends CrossCorrelation {
+	/**
+	 * Returns the shift that keeps the sum of 'windowValues' products of
+	 * 16-bit samples within 32 bits: a product is at most 2^30, so 2^shift >=
+	 * windowValues keeps the sums within 2^30.
+	 */
+	private static int getShift(int windowValues) {
+		return 32 - Integer.numberOfLeadingZeros(windowValues - 1);
+	}
+
+	@Override
+	protected double calcCorr(final int[] m, final int mo, final int[] c, final int co, int numValues,
+			int dividerBits) {
+		int corr, i, shift;
+
+		assert (mo + numValues <= m.length);
+		assert (co + numValues <= c.length);
+
+		shift = getShift(numValues);
+		corr = 0;
+		for (i = 0; i < numValues; i++) {
+			corr += (m[mo + i] * c[co + i]) >> shift;
+		}
+		return Math.scalb((double) corr, shift - dividerBits);
+	}
+
+	@Override
+	protected double calcNorm(final int[] m, final int mo, int numValues, int windowValues, int dividerBits) {
+		int norm, i, shift;
+
+		assert (mo >= 0 && mo + numValues <= m.length);
+
+		shift = getShift(windowValues);
+		norm = 0;
+		for (i = 0; i < numValues; i++) {
+			final int mi = m[mo + i];
+			norm += (mi * mi) >> shift;
+		}
+		return Math.scalb((double) norm, shift - dividerBits);
+	}
+}
@@ -0,0 +1,48 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Plain cross-correlation routine for integer samples. The products are
+ * summed in groups of four, and each group sum is divided by 2^dividerBits
+ * before it's accumulated. The squares of the energy are divided one by one,
+ * so that the energy can be updated incrementally.
+ */
+public class CrossCorrelationInteger extends CrossCorrelation {
+	@Override
+	protected double calcCorr(final int[] m, final int mo, final int[] c, final int co, int numValues,
+			int dividerBits) {
+		long corr;
+		int i;
+
+		assert (mo + numValues <= m.length);
+		assert (co + numValues <= c.length);
+
+		corr = 0;
+		// Same routine for stereo and mono. For stereo, unroll loop for better
+		// efficiency and gives slightly better resolution against rounding.
+		// For mono it same routine, just unrolls loop by factor of 4
+		for (i = 0; i < numValues; i += 4) {
+			final int pm = mo + i;
+			final int pc = co + i;
+			corr += ((long) m[pm] * c[pc] + // &nbsp;
+					(long) m[pm + 1] * c[pc + 1] + // &nbsp;
+					(long) m[pm + 2] * c[pc + 2] + // &nbsp;
+					(long) m[pm + 3] * c[pc + 3]) >> dividerBits;
+		}
+		return (double) corr;
+	}
+
+	@Override
+	protected double calcNorm(final int[] m, final int mo, int numValues, int windowValues, int dividerBits) {
+		long norm;
+		int i;
+
+		assert (mo >= 0 && mo + numValues <= m.length);
+
+		norm = 0;
+		for (i = 0; i < numValues; i++) {
+			final int mi = m[mo + i];
+			norm += ((long) mi * mi) >> dividerBits;
+		}
+		return (double) norm;
+	}
+}
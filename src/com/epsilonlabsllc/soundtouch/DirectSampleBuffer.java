@@ -0,0 +1,433 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A FIFO sample buffer that stores the samples as 16-bit PCM in off-heap
+ * memory allocated with <code>ByteBuffer.allocateDirect</code>. Samples put
+ * to the buffer are saturated to 16 bits.<br>
+ * <br>
+ * The stored PCM data can be accessed directly with {@link #ptrBeginBytes()}
+ * and {@link #ptrEndBytes(int)}, e.g. to write the processed samples to a
+ * NIO channel, or to read samples from a channel, without copying them through
+ * an intermediate array. Use it as the sink of a processing pipeline with
+ * {@link #moveSamples(FIFOSamplePipe)}.<br>
+ * <br>
+ * {@link #ptrBegin()} and {@link #getArray()} decode the samples into an
+ * internal array; writing to that array doesn't change the stored samples.
+ * putBytes and receiveBytes convert other PCM formats through the same array.
+ */
+public class DirectSampleBuffer extends FIFOSamplePipe {
+	public static final int SAMPLE_TYPE_SIZE = 2;
+
+	// / Sample buffer.
+	private ByteBuffer buffer;
+
+	// / How many samples are currently in buffer.
+	private int samplesInBuffer;
+
+	// / Channels, 1=mono, 2=stereo.
+	private int channels;
+
+	// Index of the first sample in the buffer, in samples. Increased when
+	// samples are removed from the buffer; the buffer is rewound when new
+	// samples are put to it.
+	private int bufferPos;
+
+	// Allocation policy of the buffer
+	private CapacityPolicy capacityPolicy;
+
+	// Decoded samples returned by getArray()
+	private int[] decoded;
+
+	/**
+	 * Constructor
+	 * @param numChannels number of channels (1 for mono, 2 for stereo)
+	 * @param order byte order of the stored PCM samples
+	 */
+	public DirectSampleBuffer(int numChannels, ByteOrder order) {
+		assert (numChannels > 0);
+		channels = numChannels;
+		capacityPolicy = CapacityPolicy.DEFAULT;
+		buffer = ByteBuffer.allocateDirect(capacityPolicy.getInitialCapacity() * channels * SAMPLE_TYPE_SIZE).order(order);
+		decoded = new int[0];
+	}
+
+	/**
+	 * Constructor, stores the samples in native byte order
+	 * @param numChannels number of channels (1 for mono, 2 for stereo)
+	 */
+	public DirectSampleBuffer(int numChannels) {
+		this(numChannels, ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Returns the current buffer capacity in terms of samples
+	 * @return
+	 */
+	public final int getCapacity() {
+		return buffer.capacity() / (channels * SAMPLE_TYPE_SIZE);
+	}
+
+	/**
+	 * Returns the size of one sample of all channels in bytes
+	 * @return
+	 */
+	public final int getFrameSize() {
+		return channels * SAMPLE_TYPE_SIZE;
+	}
+
+	/**
+	 * Sets the allocation policy of the buffer and allocates its initial
+	 * capacity. The maximum capacity of the policy applies to the samples
+	 * put from now on, even if the buffer is already larger.
+	 *
+	 * @param policy
+	 *            the new policy
+	 * @throws IllegalStateException
+	 *             if the buffer holds more samples than the maximum capacity
+	 */
+	public void setCapacityPolicy(CapacityPolicy policy) {
+		assert (policy != null);
+		policy.checkCapacity(samplesInBuffer);
+		capacityPolicy = policy;
+		ensureCapacity(Util.max(samplesInBuffer, policy.getInitialCapacity()));
+	}
+
+	/**
+	 * Ensures that the buffer has space for _at least_ 'capacityRequirement'
+	 * samples, and rewinds it so that the first sample is at the beginning of
+	 * the buffer. Throws an IllegalStateException if 'capacityRequirement'
+	 * exceeds the maximum capacity of the policy.
+	 */
+	private void ensureCapacity(int capacityRequirement) {
+		int capacity = getCapacity();
+
+		capacityPolicy.checkCapacity(capacityRequirement);
+
+		// move the samples to the beginning of the buffer
+		if (bufferPos != 0) {
+			buffer.limit((bufferPos + samplesInBuffer) * getFrameSize());
+			buffer.position(bufferPos * getFrameSize());
+			buffer.compact();
+			bufferPos = 0;
+		}
+
+		if (capacityRequirement > capacity) {
+			ByteBuffer temp;
+
+			capacity = capacityPolicy.getNewCapacity(capacity, capacityRequirement);
+			temp = ByteBuffer.allocateDirect(capacity * getFrameSize()).order(buffer.order());
+			buffer.limit(samplesInBuffer * getFrameSize());
+			buffer.position(0);
+			temp.put(buffer);
+			buffer = temp;
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Returns the stored PCM samples. The returned buffer's position is set to
+	 * the first sample and its limit to the end of the last sample. When
+	 * using this function to output samples, also remember to 'remove' the
+	 * outputted samples from the buffer by calling the
+	 * 'receiveSamples(numSamples)' function.
+	 *
+	 * @return the internal buffer
+	 */
+	public ByteBuffer ptrBeginBytes() {
+		buffer.limit((bufferPos + samplesInBuffer) * getFrameSize());
+		buffer.position(bufferPos * getFrameSize());
+		return buffer;
+	}
+
+	/**
+	 * Returns the free part of the buffer, with room for _at least_
+	 * 'slackCapacity' samples. The returned buffer's position is set to where
+	 * new samples are to be inserted and its limit 'slackCapacity' samples
+	 * further. When using this function as means for inserting new samples,
+	 * also remember to increase the sample count afterwards, by calling the
+	 * 'putSamples(numSamples)' function.
+	 *
+	 * @param slackCapacity
+	 *            free capacity (in samples) required
+	 * @return the internal buffer
+	 */
+	public ByteBuffer ptrEndBytes(int slackCapacity) {
+		ensureCapacity(samplesInBuffer + slackCapacity);
+		buffer.limit((samplesInBuffer + slackCapacity) * getFrameSize());
+		buffer.position(samplesInBuffer * getFrameSize());
+		return buffer;
+	}
+
+	/**
+	 * Increases the number of samples in the buffer without copying any
+	 * actual samples. Used after inserting samples with 'ptrEndBytes'.
+	 *
+	 * @param nSamples
+	 *            number of inserted samples
+	 */
+	public void putSamples(int nSamples) {
+		assert (bufferPos + samplesInBuffer + nSamples <= getCapacity());
+		capacityPolicy.checkCapacity(samplesInBuffer + nSamples);
+		samplesInBuffer += nSamples;
+	}
+
+	/**
+	 * Moves samples from the 'other' pipe instance to this instance.
+	 * Floating point samples are converted to 16-bit samples.
+	 *
+	 * @param other
+	 *            Other pipe instance where from the receive the data.
+	 */
+	@Override
+	public void moveSamples(FIFOSamplePipe other) {
+		int i, pos, num, srcPos;
+		int[] src;
+
+		if (!other.isFloatSamples()) {
+			super.moveSamples(other);
+			return;
+		}
+
+		// convert the floating point samples of 'other' while copying them
+		num = other.numSamples();
+		ensureCapacity(samplesInBuffer + num);
+		src = other.getArray();
+		srcPos = other.ptrBeginOffset();
+		pos = samplesInBuffer * channels;
+		for (i = 0; i < num * channels; i++) {
+			buffer.putShort(SAMPLE_TYPE_SIZE * pos++, (short) Util.floatToShort(Float.intBitsToFloat(src[srcPos + i])));
+		}
+		samplesInBuffer += num;
+		other.receiveSamples(num);
+	}
+
+	@Override
+	public boolean isFloatSamples() {
+		return false;
+	}
+
+	@Override
+	public int getChannels() {
+		return channels;
+	}
+
+	@Override
+	SampleVector ptrBegin() {
+		return new SampleVector(getArray(), samplesInBuffer);
+	}
+
+	@Override
+	int[] getArray() {
+		int num = samplesInBuffer * channels;
+
+		decode(decodingArray(num), 0, num);
+		return decoded;
+	}
+
+	// Returns the array of getArray(), grown to at least 'num' values
+	private int[] decodingArray(int num) {
+		if (decoded.length < num) {
+			decoded = new int[num];
+		}
+		return decoded;
+	}
+
+	@Override
+	int ptrBeginOffset() {
+		return 0;
+	}
+
+	@Override
+	void putSamples(SampleVector samples) {
+		putSamples(samples.getArray(), samples.getOffset(), samples.size());
+	}
+
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
+		int i, value, pos, end;
+
+		ensureCapacity(samplesInBuffer + numSamples);
+		pos = samplesInBuffer * channels;
+		end = offset + numSamples * channels;
+		for (i = offset; i < end; i++) {
+			value = samples[i];
+			// saturate to 16 bit integer limits
+			value = (value < -32768) ? -32768 : (value > 32767) ? 32767 : value;
+			buffer.putShort(SAMPLE_TYPE_SIZE * pos++, (short) value);
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		int i, pos, end;
+
+		ensureCapacity(samplesInBuffer + numSamples);
+		pos = samplesInBuffer * channels;
+		end = offset + numSamples * channels;
+		for (i = offset; i < end; i++) {
+			buffer.putShort(SAMPLE_TYPE_SIZE * pos++, samples[i]);
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		int i, pos, end;
+
+		ensureCapacity(samplesInBuffer + numSamples);
+		pos = samplesInBuffer * channels;
+		end = offset + numSamples * channels;
+		for (i = offset; i < end; i++) {
+			buffer.putShort(SAMPLE_TYPE_SIZE * pos++, (short) Util.floatToShort(samples[i]));
+		}
+		samplesInBuffer += numSamples;
+	}
+
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		int num = numSamples * channels;
+
+		// convert to 16-bit samples in the array of getArray()
+		format.decode(decodingArray(num), 0, data, offset, num, order == ByteOrder.BIG_ENDIAN, false);
+		putSamples(decoded, 0, numSamples);
+	}
+
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		int numSamples, num;
+
+		numSamples = data.remaining() / (format.getBytesPerSample() * channels);
+		num = numSamples * channels;
+		format.decode(decodingArray(num), 0, data, num, false);
+		putSamples(decoded, 0, numSamples);
+	}
+
+	/**
+	 * Decodes 'num' values from the beginning of the buffer to 'output'.
+	 */
+	private void decode(int[] output, int offset, int num) {
+		int i, pos;
+
+		pos = SAMPLE_TYPE_SIZE * bufferPos * channels;
+		for (i = 0; i < num; i++) {
+			output[offset + i] = buffer.getShort(pos);
+			pos += SAMPLE_TYPE_SIZE;
+		}
+	}
+
+	@Override
+	int receiveSamples(SampleVector output) {
+		int num;
+
+		num = (output.size() > samplesInBuffer) ? samplesInBuffer : output.size();
+
+		decode(output.getArray(), output.getOffset(), num * channels);
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(int[] output, int offset, int maxSamples) {
+		int num;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+		decode(output, offset, num * channels);
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(short[] output, int offset, int maxSamples) {
+		int i, num, pos;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+		pos = SAMPLE_TYPE_SIZE * bufferPos * channels;
+		for (i = 0; i < num * channels; i++) {
+			output[offset + i] = buffer.getShort(pos);
+			pos += SAMPLE_TYPE_SIZE;
+		}
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(float[] output, int offset, int maxSamples) {
+		int i, num, pos;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+		pos = SAMPLE_TYPE_SIZE * bufferPos * channels;
+		for (i = 0; i < num * channels; i++) {
+			output[offset + i] = buffer.getShort(pos) / Util.SHORT_SCALE;
+			pos += SAMPLE_TYPE_SIZE;
+		}
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveBytes(byte[] output, int offset, int maxSamples, PCMFormat format, ByteOrder order) {
+		int num;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+		decode(decodingArray(num * channels), 0, num * channels);
+		format.encode(output, offset, decoded, 0, num * channels, order == ByteOrder.BIG_ENDIAN, false);
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveBytes(ByteBuffer output, PCMFormat format) {
+		int num;
+
+		num = output.remaining() / (format.getBytesPerSample() * channels);
+		num = (num > samplesInBuffer) ? samplesInBuffer : num;
+
+		decode(decodingArray(num * channels), 0, num * channels);
+		format.encode(output, decoded, 0, num * channels, false);
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(int maxSamples) {
+		if (maxSamples >= samplesInBuffer) {
+			int temp;
+
+			temp = samplesInBuffer;
+			samplesInBuffer = 0;
+			bufferPos = 0;
+			return temp;
+		}
+
+		samplesInBuffer -= maxSamples;
+		bufferPos += maxSamples;
+
+		return maxSamples;
+	}
+
+	@Override
+	public final int numSamples() {
+		return samplesInBuffer;
+	}
+
+	@Override
+	public final boolean isEmpty() {
+		return samplesInBuffer == 0;
+	}
+
+	@Override
+	public void clear() {
+		samplesInBuffer = 0;
+		bufferPos = 0;
+	}
+
+	@Override
+	int adjustAmountOfSamples(int numSamples) {
+		if (numSamples < samplesInBuffer) {
+			samplesInBuffer = numSamples;
+		}
+		return samplesInBuffer;
+	}
+}
@@ -0,0 +1,238 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Calculates the cross-correlations of a seek window at once with fast
+ * Fourier transforms, in O(n log n) time instead of the O(seekLength *
+ * overlapLength) time of evaluating every position separately. The norms of
+ * the mixing windows are calculated incrementally with a
+ * {@link CrossCorrelation}, so the results have the same scale as those of
+ * {@link CrossCorrelation#calcCrossCorrs}.<br>
+ * <br>
+ * The object keeps work memory for the transforms, reused while the transform
+ * size doesn't grow, so unlike {@link CrossCorrelation} it must not be shared.
+ */
+public class FFTCrossCorrelation {
+	// Cost of the transforms relative to the multiply-adds of the
+	// brute-force search, per value and pass of the transform
+	private static final int FFT_COST_FACTOR = 4;
+
+	// Transform size
+	private int size;
+
+	// Work memory for the transform, real and imaginary parts
+	private double[] re;
+	private double[] im;
+
+	// Twiddle factors for the transform size
+	private double[] cosTable;
+	private double[] sinTable;
+
+	// Bit reversal permutation for the transform size
+	private int[] bitReversal;
+
+	/**
+	 * Returns true if calculating 'count' cross-correlations of 'numValues'
+	 * values with transforms is estimated to be cheaper than calculating them
+	 * one by one.
+	 *
+	 * @param channels
+	 *            number of channels
+	 * @param numValues
+	 *            number of values to correlate, i.e. channels * overlap
+	 *            length
+	 * @param count
+	 *            number of positions
+	 * @return true if the transforms are cheaper
+	 */
+	public static boolean isCheaper(int channels, int numValues, int count) {
+		long bruteForce, transform;
+		int n, bits;
+
+		if (count <= 0)
+			return false;
+		n = CircularSampleBuffer.nextPowerOfTwo(channels * (count - 1) + numValues);
+		bits = 31 - Integer.numberOfLeadingZeros(n);
+		bruteForce = (long) count * numValues;
+		transform = (long) FFT_COST_FACTOR * n * bits + 2L * n;
+		return transform < bruteForce;
+	}
+
+	/**
+	 * Calculates the normalized cross-correlations of the samples at c[co]
+	 * against the samples at 'count' consecutive positions m[mo + channels *
+	 * i], like {@link CrossCorrelation#calcCrossCorrs}.
+	 *
+	 * @param norms
+	 *            routine for calculating the norms of the mixing windows
+	 * @param floatSamples
+	 *            true if the samples are floating point samples
+	 * @param m
+	 *            samples at the candidate mixing positions
+	 * @param mo
+	 *            index of the first sample of the first position in 'm'
+	 * @param c
+	 *            samples to compare against
+	 * @param co
+	 *            index of the first sample in 'c'
+	 * @param channels
+	 *            number of channels
+	 * @param numValues
+	 *            number of values to correlate, i.e. channels * overlap
+	 *            length
+	 * @param count
+	 *            number of positions
+	 * @param dividerBits
+	 *            the sums of integer samples are divided by 2^dividerBits,
+	 *            like those of 'norms'
+	 * @param result
+	 *            array where the cross-correlation of position i is stored at
+	 *            index i
+	 */
+	public void calcCrossCorrs(CrossCorrelation norms, boolean floatSamples, final int[] m, final int mo,
+			final int[] c, final int co, int channels, int numValues, int count, int dividerBits, double[] result) {
+		int i, k, length, n;
+		double norm, scale, xr, xi, yr, yi, zr, zi, wr, wi;
+
+		assert (result.length >= count);
+		if (count <= 0)
+			return;
+
+		length = channels * (count - 1) + numValues;
+		assert (mo + length <= m.length);
+		assert (co + numValues <= c.length);
+		setSize(CircularSampleBuffer.nextPowerOfTwo(length));
+		n = size;
+
+		// pack the mixing positions to the real part and the compared samples
+		// to the imaginary part, so that one transform does for both
+		for (i = 0; i < length; i++) {
+			re[i] = floatSamples ? Float.intBitsToFloat(m[mo + i]) : m[mo + i];
+		}
+		for (i = length; i < n; i++) {
+			re[i] = 0;
+		}
+		for (i = 0; i < numValues; i++) {
+			im[i] = floatSamples ? Float.intBitsToFloat(c[co + i]) : c[co + i];
+		}
+		for (i = numValues; i < n; i++) {
+			im[i] = 0;
+		}
+
+		transform(re, im, false);
+
+		// separate the spectra X and Y of the two real sequences from the
+		// packed spectrum Z: X[k] = (Z[k] + conj(Z[n-k])) / 2,
+		// Y[k] = (Z[k] - conj(Z[n-k])) / 2i, and multiply X[k] * conj(Y[k])
+		// to get the spectrum of the cross-correlation. Pairs k, n-k are
+		// processed together since both are needed for either.
+		for (k = 0; k <= n / 2; k++) {
+			int nk = (n - k) & (n - 1);
+			zr = re[k];
+			zi = im[k];
+			wr = re[nk];
+			wi = im[nk];
+
+			xr = 0.5 * (zr + wr);
+			xi = 0.5 * (zi - wi);
+			yr = 0.5 * (zi + wi);
+			yi = -0.5 * (zr - wr);
+
+			// X[k] * conj(Y[k])
+			re[k] = xr * yr + xi * yi;
+			im[k] = xi * yr - xr * yi;
+			// the cross-correlation is real, so its spectrum at n-k is the
+			// conjugate of that at k
+			if (nk != k) {
+				re[nk] = re[k];
+				im[nk] = -im[k];
+			}
+		}
+
+		transform(re, im, true);
+
+		// the sums of integer samples are divided like those of 'norms'; the
+		// inverse transform is also divided by n
+		scale = floatSamples ? 1.0 / n : Math.scalb(1.0 / n, -dividerBits);
+
+		norm = norms.calcNorm(m, mo, numValues, numValues, dividerBits);
+		for (i = 0; i < count; i++) {
+			int pos = mo + channels * i;
+			if (i > 0) {
+				norm -= norms.calcNorm(m, pos - channels, channels, numValues, dividerBits);
+				norm += norms.calcNorm(m, pos + numValues - channels, channels, numValues, dividerBits);
+			}
+			result[i] = re[channels * i] * scale / Math.sqrt((norm < 1e-9) ? 1.0 : norm);
+		}
+	}
+
+	/**
+	 * Prepares the work memory and the tables for transforms of 'newSize'
+	 * values, a power of two.
+	 */
+	private void setSize(int newSize) {
+		int i, bits;
+
+		if (newSize == size)
+			return;
+
+		bits = 31 - Integer.numberOfLeadingZeros(newSize);
+		if (re == null || re.length < newSize) {
+			re = new double[newSize];
+			im = new double[newSize];
+		}
+		cosTable = new double[newSize / 2];
+		sinTable = new double[newSize / 2];
+		for (i = 0; i < newSize / 2; i++) {
+			cosTable[i] = Math.cos(2 * Math.PI * i / newSize);
+			sinTable[i] = Math.sin(2 * Math.PI * i / newSize);
+		}
+		bitReversal = new int[newSize];
+		for (i = 1; i < newSize; i++) {
+			bitReversal[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+		size = newSize;
+	}
+
+	/**
+	 * In-place iterative radix-2 transform of 'size' values. The inverse
+	 * transform isn't divided by the size.
+	 */
+	private void transform(double[] xr, double[] xi, boolean inverse) {
+		int i, j, len, half, step, k;
+		double tr, ti, wr, wi, sign;
+
+		final int n = size;
+
+		for (i = 0; i < n; i++) {
+			j = bitReversal[i];
+			if (j > i) {
+				tr = xr[i];
+				xr[i] = xr[j];
+				xr[j] = tr;
+				ti = xi[i];
+				xi[i] = xi[j];
+				xi[j] = ti;
+			}
+		}
+
+		sign = inverse ? 1.0 : -1.0;
+		for (len = 2; len <= n; len <<= 1) {
+			half = len >> 1;
+			step = n / len;
+			for (i = 0; i < n; i += len) {
+				for (j = 0, k = 0; j < half; j++, k += step) {
+					wr = cosTable[k];
+					wi = sign * sinTable[k];
+					final int a = i + j;
+					final int b = a + half;
+					tr = xr[b] * wr - xi[b] * wi;
+					ti = xr[b] * wi + xi[b] * wr;
+					xr[b] = xr[a] - tr;
+					xi[b] = xi[a] - ti;
+					xr[a] += tr;
+					xi[a] += ti;
+				}
+			}
+		}
+	}
+}
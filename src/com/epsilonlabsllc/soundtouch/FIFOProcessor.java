@@ -1,5 +1,8 @@
 package com.epsilonlabsllc.soundtouch;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
  * Base-class for sound processing routines working in FIFO principle. With this
  * base class it's easy to implement sound processing stages that can be chained
@@ -11,7 +14,7 @@ package com.epsilonlabsllc.soundtouch;
  */
 public class FIFOProcessor extends FIFOSamplePipe {
 	/** Internal pipe where processed samples are put. */
-	private FIFOSamplePipe output;
+	protected FIFOSamplePipe output;
 	
 	/**
 	 * Sets the output pipe exactly once.
@@ -38,38 +41,108 @@ public class FIFOProcessor extends FIFOSamplePipe {
 		this.output = output;
 	}
 
+	@Override
+	public boolean isFloatSamples() {
+		return output.isFloatSamples();
+	}
+
+	@Override
+	public int getChannels() {
+		return output.getChannels();
+	}
+
 	@Override
 	SampleVector ptrBegin() {
 		return output.ptrBegin();
 	}
 
+	@Override
+	int[] getArray() {
+		return output.getArray();
+	}
+
+	@Override
+	int ptrBeginOffset() {
+		return output.ptrBeginOffset();
+	}
+
 	@Override
 	void putSamples(SampleVector samples) {
 		this.output.putSamples(samples);
 	}
 
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
+		this.output.putSamples(samples, offset, numSamples);
+	}
+
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		this.output.putSamples(samples, offset, numSamples);
+	}
+
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		this.output.putSamples(samples, offset, numSamples);
+	}
+
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		this.output.putBytes(data, offset, numSamples, format, order);
+	}
+
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		this.output.putBytes(data, format);
+	}
+
 	@Override
 	int receiveSamples(SampleVector output) {
 		return this.output.receiveSamples(output);
 	}
 
 	@Override
-	int receiveSamples(int maxSamples) {
+	public int receiveSamples(int[] output, int offset, int maxSamples) {
+		return this.output.receiveSamples(output, offset, maxSamples);
+	}
+
+	@Override
+	public int receiveSamples(short[] output, int offset, int maxSamples) {
+		return this.output.receiveSamples(output, offset, maxSamples);
+	}
+
+	@Override
+	public int receiveSamples(float[] output, int offset, int maxSamples) {
+		return this.output.receiveSamples(output, offset, maxSamples);
+	}
+
+	@Override
+	public int receiveBytes(byte[] output, int offset, int maxSamples, PCMFormat format, ByteOrder order) {
+		return this.output.receiveBytes(output, offset, maxSamples, format, order);
+	}
+
+	@Override
+	public int receiveBytes(ByteBuffer output, PCMFormat format) {
+		return this.output.receiveBytes(output, format);
+	}
+
+	@Override
+	public int receiveSamples(int maxSamples) {
 		return this.output.receiveSamples(maxSamples);
 	}
 
 	@Override
-	int numSamples() {
+	public int numSamples() {
 		return this.output.numSamples();
 	}
 
 	@Override
-	boolean isEmpty() {
+	public boolean isEmpty() {
 		return this.output.isEmpty();
 	}
 
 	@Override
-	void clear() {
+	public void clear() {
 		this.output.clear();
 	}
 
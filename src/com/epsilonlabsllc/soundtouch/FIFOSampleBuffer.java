@@ -1,10 +1,13 @@
 package com.epsilonlabsllc.soundtouch;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class FIFOSampleBuffer extends FIFOSamplePipe {
 	public static final int SAMPLE_TYPE_SIZE = 4;
 
 	// / Sample buffer.
-	private SampleVector buffer;
+	protected SampleVector buffer;
 
 	// Raw unaligned buffer memory. 'buffer' is made aligned by pointing it to
 	// first
@@ -13,32 +16,95 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	private SampleVector bufferUnaligned;
 
 	// / Sample buffer size in bytes
-	private int sizeInBytes;
+	protected int sizeInBytes;
 
 	// / How many samples are currently in buffer.
-	private int samplesInBuffer;
+	protected int samplesInBuffer;
 
 	// / Channels, 1=mono, 2=stereo.
-	private int channels;
+	protected int channels;
 
 	// Current position pointer to the buffer. This pointer is increased when samples are
 	// removed from the pipe so that it's necessary to actually rewind buffer (move data)
 	// only when new data is put to the pipe.
-	private int bufferPos;
+	protected int bufferPos;
+
+	// Allocation policy of the buffer
+	protected CapacityPolicy capacityPolicy;
+
+	// Pool the sample arrays are taken from, null = allocate them directly
+	protected SampleBufferPool bufferPool;
+
+	// Sink of the buffer measurements, null = nothing is measured
+	protected MetricsSink metrics;
+
+	// True if the buffer holds floating point samples as raw bit patterns
+	protected final boolean floatSamples;
+
+	// Largest capacity requirement since the buffer was last trimmed
+	private int peakRequirement;
+
+	// Number of capacity checks since the buffer was last trimmed
+	private int checksSinceTrim;
 
 	/**
 	 * Constructor
 	 * @param numChannels number of channels (1 for mono, 2 for stereo)
 	 */
 	public FIFOSampleBuffer(int numChannels) {
+		this(numChannels, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param numChannels number of channels (1 for mono, 2 for stereo)
+	 * @param floatSamples true if the buffer holds floating point samples
+	 */
+	public FIFOSampleBuffer(int numChannels, boolean floatSamples) {
 		assert (numChannels > 0);
+		this.floatSamples = floatSamples;
 		sizeInBytes = 0; // reasonable initial value
 		buffer = null;
 		bufferUnaligned = null;
 		samplesInBuffer = 0;
 		bufferPos = 0;
 		channels = (int) numChannels;
-		ensureCapacity(32); // allocate initial capacity
+		capacityPolicy = CapacityPolicy.DEFAULT;
+		ensureCapacity(capacityPolicy.getInitialCapacity()); // allocate initial capacity
+	}
+
+	/**
+	 * Use this function instead of "new" operator to create a new instance of
+	 * this class. This function chooses between the linear buffer and the
+	 * circular buffer implementation.
+	 * 
+	 * @param numChannels
+	 *            number of channels (1 for mono, 2 for stereo)
+	 * @param circular
+	 *            true to create a {@link CircularSampleBuffer}
+	 * @return a new <code>FIFOSampleBuffer</code>
+	 */
+	public static FIFOSampleBuffer newInstance(int numChannels, boolean circular) {
+		return newInstance(numChannels, circular, false);
+	}
+
+	/**
+	 * Same as {@link #newInstance(int, boolean)}, for integer or floating
+	 * point samples.
+	 * 
+	 * @param numChannels
+	 *            number of channels (1 for mono, 2 for stereo)
+	 * @param circular
+	 *            true to create a {@link CircularSampleBuffer}
+	 * @param floatSamples
+	 *            true if the buffer holds floating point samples
+	 * @return a new <code>FIFOSampleBuffer</code>
+	 */
+	public static FIFOSampleBuffer newInstance(int numChannels, boolean circular, boolean floatSamples) {
+		if (circular) {
+			return new CircularSampleBuffer(numChannels, floatSamples);
+		}
+		return new FIFOSampleBuffer(numChannels, floatSamples);
 	}
 
 	/**
@@ -50,32 +116,178 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	}
 
 
+	/**
+	 * Sets the allocation policy of the buffer and allocates its initial
+	 * capacity. The maximum capacity of the policy applies to the samples
+	 * put from now on, even if the buffer is already larger.
+	 * 
+	 * @param policy
+	 *            the new policy
+	 * @throws IllegalStateException
+	 *             if the buffer holds more samples than the maximum capacity
+	 */
+	public void setCapacityPolicy(CapacityPolicy policy) {
+		assert (policy != null);
+		policy.checkCapacity(samplesInBuffer);
+		capacityPolicy = policy;
+		ensureCapacity(Util.max(samplesInBuffer, policy.getInitialCapacity()));
+	}
+
+	/**
+	 * Returns the allocation policy of the buffer.
+	 * 
+	 * @return the allocation policy
+	 */
+	public CapacityPolicy getCapacityPolicy() {
+		return capacityPolicy;
+	}
+
+	/**
+	 * Sets the pool the sample arrays are taken from and returned to. If
+	 * <code>null</code>, the arrays are allocated directly.
+	 * 
+	 * @param pool
+	 *            the pool, or <code>null</code>
+	 */
+	public void setBufferPool(SampleBufferPool pool) {
+		bufferPool = pool;
+	}
+
+	/**
+	 * Sets the sink of the fill level, reallocation and rewind measurements of
+	 * the buffer.
+	 * 
+	 * @param sink
+	 *            the sink, or <code>null</code> to measure nothing
+	 */
+	public void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+	}
+
+	/**
+	 * Clears the buffer and returns its memory to the buffer pool. The buffer
+	 * must not be used after this call.
+	 */
+	public void close() {
+		if (buffer != null) {
+			SampleBufferPool.recycle(bufferPool, buffer.getArray());
+		}
+		buffer = null;
+		bufferUnaligned = null;
+		sizeInBytes = 0;
+		samplesInBuffer = 0;
+		bufferPos = 0;
+	}
+
+	/**
+	 * Returns how many samples can still be put to the buffer before its
+	 * maximum capacity is reached. Producers can use this to apply
+	 * backpressure instead of running into the exception thrown on overflow.
+	 * 
+	 * @return number of samples that can be added, or
+	 *         <code>Integer.MAX_VALUE</code> if the capacity is unlimited
+	 */
+	public int getAvailableCapacity() {
+		int maxCapacity = capacityPolicy.getMaxCapacity();
+		if (maxCapacity == 0) {
+			return Integer.MAX_VALUE;
+		}
+		return maxCapacity - samplesInBuffer;
+	}
+
 	/**
 	 * Ensures that the buffer has enough capacity, i.e. space for _at least_ 'capacityRequirement' number of samples. 
-	 * The buffer is grown in steps of 4 kilobytes to eliminate the need for frequently growing up the buffer,
-	 * as well as to round the buffer size up to the virtual memory page size.
+	 * The new capacity is chosen by the capacity policy, and rounded up in steps of 4 kilobytes to round the buffer
+	 * size up to the virtual memory page size. Throws an IllegalStateException if 'capacityRequirement' exceeds the
+	 * maximum capacity of the policy, even if the rounded up buffer would have room for it.
 	 * @param capacityRequirement
 	 */
-	private void ensureCapacity(int capacityRequirement) {
-		SampleVector tempUnaligned, temp;
-
+	protected void ensureCapacity(int capacityRequirement) {
+		capacityPolicy.checkCapacity(capacityRequirement);
 		if (capacityRequirement > getCapacity()) {
-			// enlarge the buffer in 4kbyte steps (round up to next 4k boundary)
-			sizeInBytes = (capacityRequirement * channels * SAMPLE_TYPE_SIZE + 4095) & Util.toUnsignedInt(-4096);
-			assert (sizeInBytes % 2 == 0);
-			tempUnaligned = new SampleVector(sizeInBytes / SAMPLE_TYPE_SIZE + 16 / SAMPLE_TYPE_SIZE);
-			// Align the buffer to begin at 16byte cache line boundary for
-			// optimal performance
-			temp = Util.alignPointer(tempUnaligned);
-			if (samplesInBuffer != 0) {
-				Util.memcpy(temp, ptrBegin(), samplesInBuffer * channels);
-			}
-			buffer = temp;
-			bufferUnaligned = tempUnaligned;
-			bufferPos = 0;
+			reallocate(capacityPolicy.getNewCapacity(getCapacity(), capacityRequirement));
 		} else {
 			// simply rewind the buffer (if necessary)
 			rewind();
+			trimIfIdle(capacityRequirement);
+		}
+		if (metrics != null) {
+			metrics.bufferFill(this, capacityRequirement, getCapacity());
+		}
+	}
+
+	/**
+	 * Moves the samples to a new buffer with room for _at least_ 'newCapacity' samples.
+	 * @param newCapacity
+	 */
+	protected void reallocate(int newCapacity) {
+		SampleVector tempUnaligned, temp;
+		int maxCapacity, oldCapacity;
+		long start;
+
+		assert (newCapacity >= samplesInBuffer);
+		start = (metrics != null) ? System.nanoTime() : 0;
+		oldCapacity = getCapacity();
+		// round up to next 4k boundary, unless it exceeds the maximum capacity
+		sizeInBytes = (newCapacity * channels * SAMPLE_TYPE_SIZE + 4095) & Util.toUnsignedInt(-4096);
+		maxCapacity = capacityPolicy.getMaxCapacity();
+		if (maxCapacity != 0 && sizeInBytes > maxCapacity * channels * SAMPLE_TYPE_SIZE) {
+			sizeInBytes = Util.max(newCapacity, maxCapacity) * channels * SAMPLE_TYPE_SIZE;
+		}
+		assert (sizeInBytes % 2 == 0);
+		// no room is added for the alignment, since Java arrays can't be
+		// aligned; it would also make the pool round every 4k multiple up to
+		// twice its size
+		tempUnaligned = new SampleVector(SampleBufferPool.newArray(bufferPool, sizeInBytes / SAMPLE_TYPE_SIZE));
+		// Align the buffer to begin at 16byte cache line boundary for
+		// optimal performance
+		temp = Util.alignPointer(tempUnaligned);
+		if (samplesInBuffer != 0) {
+			Util.memcpy(temp.getArray(), temp.getOffset(), getArray(), ptrBeginOffset(), samplesInBuffer * channels);
+		}
+		if (buffer != null) {
+			SampleBufferPool.recycle(bufferPool, buffer.getArray());
+		}
+		buffer = temp;
+		bufferUnaligned = tempUnaligned;
+		bufferPos = 0;
+		if (metrics != null) {
+			metrics.bufferReallocated(this, oldCapacity, getCapacity(), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Keeps track of the capacity requirements and shrinks the buffer when the
+	 * trim interval of the capacity policy has passed and the buffer has been
+	 * at least twice as large as needed during it.
+	 * @param capacityRequirement current capacity requirement
+	 */
+	protected final void trimIfIdle(int capacityRequirement) {
+		int trimInterval = capacityPolicy.getTrimInterval();
+		if (trimInterval == 0) {
+			return;
+		}
+		if (capacityRequirement > peakRequirement) {
+			peakRequirement = capacityRequirement;
+		}
+		if (++checksSinceTrim >= trimInterval) {
+			int target = Util.max(peakRequirement, capacityPolicy.getInitialCapacity());
+			if (2 * target <= getCapacity()) {
+				reallocate(target);
+			}
+			checksSinceTrim = 0;
+			peakRequirement = capacityRequirement;
+		}
+	}
+
+	/**
+	 * Shrinks the buffer to the smallest capacity that holds the current
+	 * samples, but not below the initial capacity of the capacity policy.
+	 */
+	public void trimToSize() {
+		int target = Util.max(samplesInBuffer, capacityPolicy.getInitialCapacity());
+		if (target < getCapacity()) {
+			reallocate(target);
 		}
 	}
 
@@ -85,18 +297,132 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	 * When using this function to output samples, also remember to 'remove' the outputted samples
 	 * from the buffer by calling the 'receiveSamples(numSamples)' function
 	 */
+	@Override
+	public final boolean isFloatSamples() {
+		return floatSamples;
+	}
+
+	@Override
+	public final int getChannels() {
+		return channels;
+	}
+
 	@Override
 	SampleVector ptrBegin() {
 		assert (buffer != null);
-		return buffer.shift(bufferPos * channels);
+		return buffer.shift(ptrBeginOffset() - buffer.getOffset());
+	}
+
+	@Override
+	final int[] getArray() {
+		assert (buffer != null);
+		return buffer.getArray();
+	}
+
+	@Override
+	int ptrBeginOffset() {
+		assert (buffer != null);
+		return buffer.getOffset() + bufferPos * channels;
 	}
 
 	// Adds 'numSamples' pcs of samples from the 'samples' memory position to
 	// the sample buffer.
 	@Override
 	void putSamples(SampleVector samples) {
-		Util.memcpy(ptrEnd(samples.size()), samples, samples.size() * channels);
-		samplesInBuffer += samples.size();
+		putSamples(samples.getArray(), samples.getOffset(), samples.size());
+	}
+
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
+		int pos = ptrEndOffset(numSamples);
+		Util.memcpy(getArray(), pos, samples, offset, numSamples * channels);
+		samplesInBuffer += numSamples;
+	}
+
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		copyToEnd(samples, offset, numSamples);
+		putSamples(numSamples);
+	}
+
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		copyToEnd(samples, offset, numSamples);
+		putSamples(numSamples);
+	}
+
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		copyToEnd(data, offset, numSamples, format, order);
+		putSamples(numSamples);
+	}
+
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		int numSamples = data.remaining() / (format.getBytesPerSample() * channels);
+
+		copyToEnd(data, numSamples, format);
+		putSamples(numSamples);
+	}
+
+	/**
+	 * Copies 16-bit samples to the free space after the last sample,
+	 * converting them to the format of the buffer, without adding them to the
+	 * buffer.
+	 * 
+	 * @param samples
+	 *            array holding the samples
+	 * @param offset
+	 *            index of the first sample in 'samples'
+	 * @param numSamples
+	 *            number of samples (per channel) to copy
+	 * @return index of the first copied sample in {@link #getArray()}
+	 */
+	int copyToEnd(short[] samples, int offset, int numSamples) {
+		int pos = ptrEndOffset(numSamples);
+		if (floatSamples) {
+			Util.shortToFloatBits(getArray(), pos, samples, offset, numSamples * channels);
+		} else {
+			Util.shortToInt(getArray(), pos, samples, offset, numSamples * channels);
+		}
+		return pos;
+	}
+
+	/**
+	 * Same as {@link #copyToEnd(short[], int, int)} for normalized floating
+	 * point samples.
+	 */
+	int copyToEnd(float[] samples, int offset, int numSamples) {
+		int pos = ptrEndOffset(numSamples);
+		if (floatSamples) {
+			Util.floatToBits(getArray(), pos, samples, offset, numSamples * channels);
+		} else {
+			Util.floatToInt(getArray(), pos, samples, offset, numSamples * channels);
+		}
+		return pos;
+	}
+
+	/**
+	 * Same as {@link #copyToEnd(short[], int, int)} for samples in the PCM
+	 * format 'format', decoded directly from the bytes of 'data' starting at
+	 * index 'offset'.
+	 */
+	int copyToEnd(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		int pos = ptrEndOffset(numSamples);
+		format.decode(getArray(), pos, data, offset, numSamples * channels, order == ByteOrder.BIG_ENDIAN,
+				floatSamples);
+		return pos;
+	}
+
+	/**
+	 * Same as {@link #copyToEnd(short[], int, int)} for samples in the PCM
+	 * format 'format' at the position of 'data', in the byte order of the
+	 * buffer. The position is advanced past the copied samples.
+	 */
+	int copyToEnd(ByteBuffer data, int numSamples, PCMFormat format) {
+		int pos = ptrEndOffset(numSamples);
+		format.decode(getArray(), pos, data, numSamples * channels, floatSamples);
+		return pos;
 	}
 
 	// Output samples from beginning of the sample buffer. Copies demanded number
@@ -106,19 +432,87 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	// Returns number of samples copied.
 	@Override
 	int receiveSamples(SampleVector output) {
+		return receiveSamples(output.getArray(), output.getOffset(), output.size());
+	}
+
+	/**
+	 * Output samples from beginning of the sample buffer to the 'output' array,
+	 * starting at index 'offset'. Copies at most 'maxSamples' samples and
+	 * removes them from the sample buffer.
+	 * 
+	 * @param output
+	 *            array where to copy output samples
+	 * @param offset
+	 *            index in 'output' of the first copied sample
+	 * @param maxSamples
+	 *            maximum number of samples (per channel) to copy
+	 * @return Number of samples returned.
+	 */
+	@Override
+	public int receiveSamples(int[] output, int offset, int maxSamples) {
+		int num;
+
+	    num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+	    Util.memcpy(output, offset, getArray(), ptrBeginOffset(), channels * num);
+	    return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(short[] output, int offset, int maxSamples) {
+		int num;
+
+	    num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+	    if (floatSamples) {
+	    	Util.floatBitsToShort(output, offset, getArray(), ptrBeginOffset(), channels * num);
+	    } else {
+	    	Util.intToShort(output, offset, getArray(), ptrBeginOffset(), channels * num);
+	    }
+	    return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveSamples(float[] output, int offset, int maxSamples) {
 		int num;
 
-	    num = (output.size() > samplesInBuffer) ? samplesInBuffer : output.size();
+	    num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
 
-	    Util.memcpy(output, ptrBegin(), channels * num);
+	    if (floatSamples) {
+	    	Util.bitsToFloat(output, offset, getArray(), ptrBeginOffset(), channels * num);
+	    } else {
+	    	Util.intToFloat(output, offset, getArray(), ptrBeginOffset(), channels * num);
+	    }
 	    return receiveSamples(num);
 	}
 
+	@Override
+	public int receiveBytes(byte[] output, int offset, int maxSamples, PCMFormat format, ByteOrder order) {
+		int num;
+
+		num = (maxSamples > samplesInBuffer) ? samplesInBuffer : maxSamples;
+
+		format.encode(output, offset, getArray(), ptrBeginOffset(), channels * num, order == ByteOrder.BIG_ENDIAN,
+				floatSamples);
+		return receiveSamples(num);
+	}
+
+	@Override
+	public int receiveBytes(ByteBuffer output, PCMFormat format) {
+		int num;
+
+		num = output.remaining() / (format.getBytesPerSample() * channels);
+		num = (num > samplesInBuffer) ? samplesInBuffer : num;
+
+		format.encode(output, getArray(), ptrBeginOffset(), channels * num, floatSamples);
+		return receiveSamples(num);
+	}
+
 	// Removes samples from the beginning of the sample buffer without copying them
 	// anywhere. Used to reduce the number of samples in the buffer, when accessing
 	// the sample buffer with the 'ptrBegin' function.
 	@Override
-	int receiveSamples(int maxSamples) {
+	public int receiveSamples(int maxSamples) {
 		if (maxSamples >= samplesInBuffer)
 	    {
 	        int temp;
@@ -135,19 +529,19 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	}
 
 	@Override
-	final int numSamples() {
+	public final int numSamples() {
 		return samplesInBuffer;
 	}
 
 	// Returns nonzero if the sample buffer is empty
 	@Override
-	final boolean isEmpty() {
+	public final boolean isEmpty() {
 		return samplesInBuffer == 0;
 	}
 
 	// Clears the sample buffer
 	@Override
-	void clear() {
+	public void clear() {
 		samplesInBuffer = 0;
 	    bufferPos = 0;
 	}
@@ -178,8 +572,24 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	// to increase the sample count afterwards, by calling the
 	// 'putSamples(numSamples)' function.
 	public SampleVector ptrEnd(int slackCapacity) {
+		int pos = ptrEndOffset(slackCapacity);
+		return buffer.shift(pos - buffer.getOffset());
+	}
+
+	/**
+	 * Same as {@link #ptrEnd(int)}, but returns the index of the end of the
+	 * used part of the sample buffer in {@link #getArray()} instead of a view.
+	 * Note that the array may be reallocated by this call, so
+	 * {@link #getArray()} must be called after it.
+	 * 
+	 * @param slackCapacity
+	 *            free capacity (in samples) required after the returned
+	 *            position
+	 * @return index where new samples are to be inserted
+	 */
+	int ptrEndOffset(int slackCapacity) {
 		ensureCapacity(samplesInBuffer + slackCapacity);
-		return buffer.shift(samplesInBuffer * channels);
+		return buffer.getOffset() + samplesInBuffer * channels;
 	}
 
 	// Increases the number of samples in the buffer without copying any actual
@@ -190,18 +600,26 @@ public class FIFOSampleBuffer extends FIFOSamplePipe {
 	// when accessing the buffer directly with 'ptrEnd' function. Please be
 	// careful though!
 	public void putSamples(int nSamples) {
-		int req = samplesInBuffer + nSamples;
-		ensureCapacity(req);
+		// count the new samples first, so that they are kept if the buffer
+		// gets reallocated
+		capacityPolicy.checkCapacity(samplesInBuffer + nSamples);
 		samplesInBuffer += nSamples;
+		ensureCapacity(samplesInBuffer);
 	}
 
 	// if output location pointer 'bufferPos' isn't zero, 'rewinds' the buffer
 	// and zeroes this pointer by copying samples from the 'bufferPos' pointer
 	// location on to the beginning of the buffer.
 	void rewind() {
+		long start;
+
 		if (buffer != null && bufferPos != 0) {
-			Util.memmove(buffer, ptrBegin(), channels * samplesInBuffer);
+			start = (metrics != null) ? System.nanoTime() : 0;
+			Util.memmove(buffer.getArray(), buffer.getOffset(), getArray(), ptrBeginOffset(), channels * samplesInBuffer);
 			bufferPos = 0;
+			if (metrics != null) {
+				metrics.bufferRewound(this, channels * samplesInBuffer * SAMPLE_TYPE_SIZE, System.nanoTime() - start);
+			}
 		}
 	}
 
@@ -1,7 +1,41 @@
 package com.epsilonlabsllc.soundtouch;
 
-/** Abstract base class for FIFO (first-in-first-out) sample processing classes. */
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Abstract base class for FIFO (first-in-first-out) sample processing classes.<br>
+ * <br>
+ * The samples of a pipe are either 16-bit integer samples or floating point
+ * samples normalized to -1.0 .. 1.0, see {@link #isFloatSamples()}. Both are
+ * held in int arrays; floating point samples are stored as the bit patterns
+ * returned by <code>Float.floatToRawIntBits</code>, so that the buffers can
+ * move them around without knowing their format. The short[] and float[]
+ * variants of putSamples and receiveSamples convert the samples to and from
+ * the format of the pipe. putBytes and receiveBytes convert the samples to
+ * and from PCM byte streams, see {@link PCMFormat}.
+ * <br>
+ * <br>
+ * All the variants copy the samples to and from arrays or buffers owned by
+ * the caller, so that long blocks of samples can be processed without
+ * intermediate copies. Sample counts are per channel, i.e. in sample frames.
+ */
 public abstract class FIFOSamplePipe {
+	/**
+	 * Returns true if the pipe holds floating point samples, false if it holds
+	 * integer samples.
+	 * 
+	 * @return true if the pipe holds floating point samples
+	 */
+	public abstract boolean isFloatSamples();
+
+	/**
+	 * Returns the number of interleaved channels of the samples.
+	 * 
+	 * @return number of channels
+	 */
+	public abstract int getChannels();
+
 	/**
 	 * Returns a pointer to the beginning of the output samples. This function
 	 * is provided for accessing the output samples directly. Please be careful
@@ -15,6 +49,22 @@ public abstract class FIFOSamplePipe {
 	 */
 	abstract SampleVector ptrBegin();
 
+	/**
+	 * Returns the array holding the output samples, i.e. the backing array of
+	 * {@link #ptrBegin()}. Together with {@link #ptrBeginOffset()} this
+	 * provides access to the output samples without allocating a view.
+	 * 
+	 * @return the array holding the output samples
+	 */
+	abstract int[] getArray();
+
+	/**
+	 * Returns the index of the first output sample in {@link #getArray()}.
+	 * 
+	 * @return the index of the first output sample
+	 */
+	abstract int ptrBeginOffset();
+
 	/**
 	 * Adds 'numSamples' pcs of samples from the 'samples' memory position to
 	 * the sample buffer.
@@ -23,6 +73,93 @@ public abstract class FIFOSamplePipe {
 	 */
 	abstract void putSamples(SampleVector sampleSet);
 
+	/**
+	 * Adds 'numSamples' pcs of samples from the 'samples' array, starting at
+	 * index 'offset', to the sample buffer.
+	 * 
+	 * @param samples
+	 *            array holding the samples
+	 * @param offset
+	 *            index of the first sample in 'samples'
+	 * @param numSamples
+	 *            number of samples (per channel) to add
+	 */
+	public abstract void putSamples(int[] samples, int offset, int numSamples);
+
+	/**
+	 * Adds 'numSamples' pcs of 16-bit samples from the 'samples' array,
+	 * starting at index 'offset', to the sample buffer. The samples are
+	 * widened while they are copied, without a separate conversion pass.
+	 * 
+	 * @param samples
+	 *            array holding the samples
+	 * @param offset
+	 *            index of the first sample in 'samples'
+	 * @param numSamples
+	 *            number of samples (per channel) to add
+	 */
+	public abstract void putSamples(short[] samples, int offset, int numSamples);
+
+	/**
+	 * Adds 'numSamples' pcs of floating point samples, normalized to -1.0 ..
+	 * 1.0, from the 'samples' array, starting at index 'offset', to the sample
+	 * buffer.
+	 * 
+	 * @param samples
+	 *            array holding the samples
+	 * @param offset
+	 *            index of the first sample in 'samples'
+	 * @param numSamples
+	 *            number of samples (per channel) to add
+	 */
+	public abstract void putSamples(float[] samples, int offset, int numSamples);
+
+	/**
+	 * Adds the 16-bit PCM samples between the position and the limit of
+	 * 'samples', in the byte order of the buffer, to the sample buffer. Same
+	 * as {@link #putBytes(ByteBuffer, PCMFormat)} with
+	 * {@link PCMFormat#PCM_16}.
+	 * 
+	 * @param samples
+	 *            buffer holding the samples
+	 */
+	public void putSamples(ByteBuffer samples) {
+		putBytes(samples, PCMFormat.PCM_16);
+	}
+
+	/**
+	 * Adds 'numSamples' pcs of samples in the PCM format 'format' from the
+	 * bytes of 'data', starting at index 'offset', to the sample buffer. The
+	 * samples are converted while they are copied, without a separate
+	 * conversion pass.
+	 * 
+	 * @param data
+	 *            array holding the samples
+	 * @param offset
+	 *            index of the first byte in 'data'
+	 * @param numSamples
+	 *            number of samples (per channel) to add
+	 * @param format
+	 *            format of the samples
+	 * @param order
+	 *            byte order of the samples
+	 */
+	public abstract void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order);
+
+	/**
+	 * Adds the samples in the PCM format 'format' between the position and the
+	 * limit of 'data', in the byte order of the buffer, to the sample buffer.
+	 * Only whole sample frames are consumed; the position of 'data' is
+	 * advanced past them, so that any remaining partial frame can be completed
+	 * by the caller.
+	 * 
+	 * @param data
+	 *            buffer holding the samples
+	 * @param format
+	 *            format of the samples
+	 */
+	public abstract void putBytes(ByteBuffer data, PCMFormat format);
+
 	/**
 	 * Moves samples from the 'other' pipe instance to this instance.
 	 * 
@@ -30,8 +167,12 @@ public abstract class FIFOSamplePipe {
 	 *            Other pipe instance where from the receive the data.
 	 */
 	void moveSamples(FIFOSamplePipe other) {
-		putSamples(other.ptrBegin());
-		other.receiveSamples(other.numSamples());
+		int oNumSamples = other.numSamples();
+
+		assert (isFloatSamples() == other.isFloatSamples()) : "Sample formats of the pipes differ.";
+
+		putSamples(other.getArray(), other.ptrBeginOffset(), oNumSamples);
+		other.receiveSamples(oNumSamples);
 	}
 
 	/**
@@ -46,6 +187,101 @@ public abstract class FIFOSamplePipe {
 	 */
 	abstract int receiveSamples(SampleVector output);
 
+	/**
+	 * Output samples from beginning of the sample buffer in the format of the
+	 * pipe, see {@link #isFloatSamples()}. Copies at most 'maxSamples' samples
+	 * to 'output' starting at index 'offset' and removes them from the sample
+	 * buffer.
+	 * 
+	 * @param output
+	 *            Buffer where to copy output samples.
+	 * @param offset
+	 *            index in 'output' of the first copied sample
+	 * @param maxSamples
+	 *            maximum number of samples (per channel) to copy
+	 * @return Number of samples returned.
+	 */
+	public abstract int receiveSamples(int[] output, int offset, int maxSamples);
+
+	/**
+	 * Output samples from beginning of the sample buffer as 16-bit samples,
+	 * saturated to 16-bit integer limits. Copies at most 'maxSamples' samples
+	 * to 'output' starting at index 'offset' and removes them from the sample
+	 * buffer.
+	 * 
+	 * @param output
+	 *            Buffer where to copy output samples.
+	 * @param offset
+	 *            index in 'output' of the first copied sample
+	 * @param maxSamples
+	 *            maximum number of samples (per channel) to copy
+	 * @return Number of samples returned.
+	 */
+	public abstract int receiveSamples(short[] output, int offset, int maxSamples);
+
+	/**
+	 * Output samples from beginning of the sample buffer as floating point
+	 * samples, normalized to -1.0 .. 1.0. Copies at most 'maxSamples' samples
+	 * to 'output' starting at index 'offset' and removes them from the sample
+	 * buffer.
+	 * 
+	 * @param output
+	 *            Buffer where to copy output samples.
+	 * @param offset
+	 *            index in 'output' of the first copied sample
+	 * @param maxSamples
+	 *            maximum number of samples (per channel) to copy
+	 * @return Number of samples returned.
+	 */
+	public abstract int receiveSamples(float[] output, int offset, int maxSamples);
+
+	/**
+	 * Output samples from beginning of the sample buffer as 16-bit PCM in the
+	 * byte order of 'output'. Same as
+	 * {@link #receiveBytes(ByteBuffer, PCMFormat)} with
+	 * {@link PCMFormat#PCM_16}.
+	 * 
+	 * @param output
+	 *            Buffer where to copy output samples.
+	 * @return Number of samples returned.
+	 */
+	public int receiveSamples(ByteBuffer output) {
+		return receiveBytes(output, PCMFormat.PCM_16);
+	}
+
+	/**
+	 * Output samples from beginning of the sample buffer in the PCM format
+	 * 'format'. Copies at most 'maxSamples' samples to the bytes of 'output'
+	 * starting at index 'offset' and removes them from the sample buffer.
+	 * 
+	 * @param output
+	 *            Buffer where to copy output samples.
+	 * @param offset
+	 *            index in 'output' of the first byte
+	 * @param maxSamples
+	 *            maximum number of samples (per channel) to copy
+	 * @param format
+	 *            format of the output samples
+	 * @param order
+	 *            byte order of the output samples
+	 * @return Number of samples returned.
+	 */
+	public abstract int receiveBytes(byte[] output, int offset, int maxSamples, PCMFormat format, ByteOrder order);
+
+	/**
+	 * Output samples from beginning of the sample buffer in the PCM format
+	 * 'format', in the byte order of 'output'. Copies as many whole sample
+	 * frames as fit between the position and the limit of 'output', advances
+	 * its position past them and removes them from the sample buffer.
+	 * 
+	 * @param output
+	 *            Buffer where to copy output samples.
+	 * @param format
+	 *            format of the output samples
+	 * @return Number of samples returned.
+	 */
+	public abstract int receiveBytes(ByteBuffer output, PCMFormat format);
+
 	/**
 	 * Adjusts book-keeping so that given number of samples are removed from
 	 * beginning of the sample buffer without copying them anywhere. Used to
@@ -56,26 +292,26 @@ public abstract class FIFOSamplePipe {
 	 *            Remove this many samples from the beginning of pipe.
 	 * @return ???
 	 */
-	abstract int receiveSamples(int maxSamples);
+	public abstract int receiveSamples(int maxSamples);
 
 	/**
 	 * Returns number of samples currently available.
 	 * 
 	 * @return number of samples currently available
 	 */
-	abstract int numSamples();
+	public abstract int numSamples();
 
 	/**
 	 * Returns true if there aren't any samples available for outputting.
 	 * 
 	 * @return true if there aren't any samples available for outputting.
 	 */
-	abstract boolean isEmpty();
+	public abstract boolean isEmpty();
 
 	/**
 	 * Clears all the samples.
 	 */
-	abstract void clear();
+	public abstract void clear();
 
 	/**
 	 * allow trimming (downwards) amount of samples in pipeline.
@@ -1,6 +1,12 @@
 package com.epsilonlabsllc.soundtouch;
 
-public abstract class FIRFilter {
+/**
+ * General FIR digital filter routines with MMX optimization in the original
+ * SoundTouch. This class is the plain version of the routines, with 64-bit
+ * accumulators; {@link #newInstance()} returns the 32-bit accumulating
+ * {@link FIRFilterInt32} unless disabled in {@link SoundTouchSettings}.
+ */
+public class FIRFilter {
 	// Number of FIR filter taps
 	protected int length;
 	// Number of FIR filter taps divided by 8
@@ -11,33 +17,63 @@ public abstract class FIRFilter {
 	protected int resultDivider;
 	// Memory for filter coefficients
 	protected SampleVector filterCoeffs;
+	// Executes long filtering calls in parallel, null = on the calling thread
+	protected ParallelExecution parallelExecution;
+
+	// Filters a range of output samples of the current parallel call
+	private class Evaluation implements ParallelExecution.Task {
+		int[] dest;
+		int destOffset;
+		int[] src;
+		int srcOffset;
+		int numChannels;
+
+		public void run(int begin, int end) {
+			evaluateChannels(dest, destOffset + numChannels * begin, src, srcOffset + numChannels * begin, end - begin
+					+ length, numChannels);
+		}
+	}
+
+	// Task of the parallel calls, created when first needed
+	private Evaluation evaluation;
 
 	//???? TODO:
-	protected int evaluateFilterStereo(SampleVector dest, final SampleVector src) {
+	protected int evaluateFilterStereo(final int[] d, final int dOff, final int[] s, final int so, int numSamples) {
 		int i, j, end;
 		long suml, sumr;
 
 		assert (length != 0);
-		assert (src != null);
-		assert (dest != null);
+		assert (s != null);
+		assert (d != null);
 		assert (filterCoeffs != null);
 
-		end = 2 * (src.size() - length);
+		final int[] c = filterCoeffs.getArray();
+		final int co = filterCoeffs.getOffset();
+
+		end = 2 * (numSamples - length);
+		if (end <= 0)
+			return 0;
+		assert (so + end + 2 * length <= s.length);
+		assert (dOff + end <= d.length);
+		assert (co + length <= c.length);
 
 		for (j = 0; j < end; j += 2) {
+			final int p = so + j;
 			suml = 0;
 			sumr = 0;
 
 			for (i = 0; i < length; i += 4) {
+				final int ps = p + 2 * i;
+				final int pc = co + i;
 				// loop is unrolled by factor of 4 here for efficiency
-				suml += src.get(2 * i + 0 + j) * filterCoeffs.get(i + 0) + // &nbsp
-						src.get(2 * i + 2 + j) * filterCoeffs.get(i + 1) + // &nbsp
-						src.get(2 * i + 4 + j) * filterCoeffs.get(i + 2) + // &nbsp
-						src.get(2 * i + 6 + j) * filterCoeffs.get(i + 3);
-				sumr += src.get(2 * i + 1 + j) * filterCoeffs.get(i + 0) + // &nbsp
-						src.get(2 * i + 3 + j) * filterCoeffs.get(i + 1) + // &nbsp
-						src.get(2 * i + 5 + j) * filterCoeffs.get(i + 2) + // &nbsp
-						src.get(2 * i + 7 + j) * filterCoeffs.get(i + 3);
+				suml += s[ps + 0] * c[pc + 0] + // &nbsp
+						s[ps + 2] * c[pc + 1] + // &nbsp
+						s[ps + 4] * c[pc + 2] + // &nbsp
+						s[ps + 6] * c[pc + 3];
+				sumr += s[ps + 1] * c[pc + 0] + // &nbsp
+						s[ps + 3] * c[pc + 1] + // &nbsp
+						s[ps + 5] * c[pc + 2] + // &nbsp
+						s[ps + 7] * c[pc + 3];
 			}
 
 			suml >>= resultDivFactor;
@@ -46,46 +82,112 @@ public abstract class FIRFilter {
 			suml = (suml < -32768) ? -32768 : (suml > 32767) ? 32767 : suml;
 			// saturate to 16 bit integer limits
 			sumr = (sumr < -32768) ? -32768 : (sumr > 32767) ? 32767 : sumr;
-			dest.set(j, (int) suml);
-			dest.set(j + 1, (int) sumr);
+			d[dOff + j] = (int) suml;
+			d[dOff + j + 1] = (int) sumr;
 		}
-		return src.size() - length;
+		return numSamples - length;
 	}
 
 	/**
 	 * Usual C-version of the filter routine for mono sound
 	 * 
-	 * @param dest
-	 * @param src
-	 * @return
+	 * @param d
+	 *            destination array
+	 * @param dOff
+	 *            index of the first destination sample in 'd'
+	 * @param s
+	 *            source array
+	 * @param so
+	 *            index of the first source sample in 's'
+	 * @param numSamples
+	 *            number of source samples
+	 * @return number of samples written to 'd'
 	 */
-	protected int evaluateFilterMono(SampleVector dest, final SampleVector src) {
-		int i, j, offset, end;
+	protected int evaluateFilterMono(final int[] d, final int dOff, final int[] s, final int so, int numSamples) {
+		int i, j, end;
 		long sum;
 
 		assert (length != 0) : "Length was zero.";
 
-		end = src.size() - length;
-		offset = 0;
+		final int[] c = filterCoeffs.getArray();
+		final int co = filterCoeffs.getOffset();
+
+		end = numSamples - length;
+		if (end <= 0)
+			return 0;
+		assert (so + end + length <= s.length);
+		assert (dOff + end <= d.length);
+		assert (co + length <= c.length);
+
 		for (j = 0; j < end; j++) {
+			final int p = so + j;
 			sum = 0;
 			for (i = 0; i < length; i += 4) {
 				// loop is unrolled by factor of 4 here for efficiency
-				sum += src.get(i + 0 + offset) * filterCoeffs.get(i + 0) + // &nbsp
-						src.get(i + 1 + offset) * filterCoeffs.get(i + 1) + // &nbsp
-						src.get(i + 2 + offset) * filterCoeffs.get(i + 2) + // &nbsp
-						src.get(i + 3 + offset) * filterCoeffs.get(i + 3);
+				sum += s[p + i + 0] * c[co + i + 0] + // &nbsp
+						s[p + i + 1] * c[co + i + 1] + // &nbsp
+						s[p + i + 2] * c[co + i + 2] + // &nbsp
+						s[p + i + 3] * c[co + i + 3];
 			}
 			sum >>= resultDivFactor;
 			// saturate to 16 bit integer limits
 			sum = (sum < -32768) ? -32768 : (sum > 32767) ? 32767 : sum;
-			dest.set(j, (int) sum);
-			offset++;
+			d[dOff + j] = (int) sum;
 		}
 
 		return end;
 	}
 
+	/**
+	 * Filter routine for interleaved samples of any number of channels.
+	 * 
+	 * @param d
+	 *            destination array
+	 * @param dOff
+	 *            index of the first destination sample in 'd'
+	 * @param s
+	 *            source array
+	 * @param so
+	 *            index of the first source sample in 's'
+	 * @param numSamples
+	 *            number of source samples per channel
+	 * @param numChannels
+	 *            number of interleaved channels
+	 * @return number of samples per channel written to 'd'
+	 */
+	protected int evaluateFilterMulti(final int[] d, final int dOff, final int[] s, final int so, int numSamples,
+			int numChannels) {
+		int i, j, ch, end;
+		long sum;
+
+		assert (length != 0);
+
+		final int[] c = filterCoeffs.getArray();
+		final int co = filterCoeffs.getOffset();
+
+		end = numChannels * (numSamples - length);
+		if (end <= 0)
+			return 0;
+		assert (so + end + numChannels * length <= s.length);
+		assert (dOff + end <= d.length);
+		assert (co + length <= c.length);
+
+		for (j = 0; j < end; j += numChannels) {
+			for (ch = 0; ch < numChannels; ch++) {
+				final int p = so + j + ch;
+				sum = 0;
+				for (i = 0; i < length; i++) {
+					sum += s[p + numChannels * i] * c[co + i];
+				}
+				sum >>= resultDivFactor;
+				// saturate to 16 bit integer limits
+				sum = (sum < -32768) ? -32768 : (sum > 32767) ? 32767 : sum;
+				d[dOff + j + ch] = (int) sum;
+			}
+		}
+		return numSamples - length;
+	}
+
 	/**
 	 * Applies the filter to the given sequence of samples. Note : The amount of
 	 * outputted samples is by value of 'filter_length' smaller than the amount
@@ -98,7 +200,79 @@ public abstract class FIRFilter {
 	 * @param numChannels
 	 * @return
 	 */
-	public abstract int evaluate(SampleVector dest, final SampleVector src, int numChannels);
+	public int evaluate(SampleVector dest, final SampleVector src, int numChannels) {
+		return evaluate(dest.getArray(), dest.getOffset(), src.getArray(), src.getOffset(), src.size(), numChannels);
+	}
+
+	/**
+	 * Applies the filter to 'numSamples' samples starting at src[srcOffset]
+	 * and writes the result to dest[destOffset]. Note : The amount of
+	 * outputted samples is by value of 'filter_length' smaller than the amount
+	 * of input samples.
+	 * 
+	 * @param dest
+	 * @param destOffset
+	 * @param src
+	 * @param srcOffset
+	 * @param numSamples
+	 * @param numChannels
+	 * @return Number of samples copied to 'dest'.
+	 */
+	public int evaluate(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples, int numChannels) {
+		assert (length > 0);
+		assert (lengthDiv8 * 8 == length);
+
+		if (numSamples < length)
+			return 0;
+
+		assert (numChannels > 0);
+		if (parallelExecution != null) {
+			final int frames = numSamples - length;
+			if (parallelExecution.getTaskCount(frames, numChannels * frames) > 1) {
+				if (evaluation == null) {
+					evaluation = new Evaluation();
+				}
+				evaluation.dest = dest;
+				evaluation.destOffset = destOffset;
+				evaluation.src = src;
+				evaluation.srcOffset = srcOffset;
+				evaluation.numChannels = numChannels;
+				try {
+					parallelExecution.execute(frames, numChannels * frames, evaluation);
+				} finally {
+					evaluation.dest = null;
+					evaluation.src = null;
+				}
+				return frames;
+			}
+		}
+		return evaluateChannels(dest, destOffset, src, srcOffset, numSamples, numChannels);
+	}
+
+	// Calls the filter routine for the number of channels
+	private int evaluateChannels(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples,
+			int numChannels) {
+		if (numChannels == 2) {
+			return evaluateFilterStereo(dest, destOffset, src, srcOffset, numSamples);
+		} else if (numChannels == 1) {
+			return evaluateFilterMono(dest, destOffset, src, srcOffset, numSamples);
+		} else {
+			return evaluateFilterMulti(dest, destOffset, src, srcOffset, numSamples, numChannels);
+		}
+	}
+
+	/**
+	 * Sets the executor for filtering long blocks of samples in parallel. The
+	 * output samples are split to ranges filtered concurrently; the filter
+	 * routines of subclasses must be safe to call so.
+	 * 
+	 * @param execution
+	 *            the executor, or <code>null</code> to filter on the calling
+	 *            thread
+	 */
+	public void setParallelExecution(ParallelExecution execution) {
+		parallelExecution = execution;
+	}
 
 	/**
 	 * Set filter coefficients and length. Throws an exception if filter length isn't divisible by 8
@@ -119,7 +293,9 @@ public abstract class FIRFilter {
 		resultDivFactor = uResultDivFactor;
 		resultDivider = (int) Math.pow(2.0, (int) resultDivFactor);
 
-		filterCoeffs = new SampleVector(length);
+		if (filterCoeffs == null || filterCoeffs.size() != length) {
+			filterCoeffs = new SampleVector(length);
+		}
 		Util.memcpy(filterCoeffs, coeffs, length);
 	}
 	
@@ -127,7 +303,31 @@ public abstract class FIRFilter {
 		return length;
 	}
 
+	/**
+	 * Use this function instead of "new" operator to create a new instance of
+	 * this class. This function automatically chooses the fastest available
+	 * implementation.
+	 * 
+	 * @return a new <code>FIRFilter</code>
+	 */
 	public static FIRFilter newInstance() {
-		return null;
+		if (SoundTouchSettings.SOUNDTOUCH_ALLOW_INT32_FIR) {
+			return new FIRFilterInt32();
+		}
+		return new FIRFilter();
+	}
+
+	/**
+	 * Same as {@link #newInstance()}, for integer or floating point samples.
+	 * 
+	 * @param floatSamples
+	 *            true to filter floating point samples
+	 * @return a new <code>FIRFilter</code>
+	 */
+	public static FIRFilter newInstance(boolean floatSamples) {
+		if (floatSamples) {
+			return new FIRFilterFloat();
+		}
+		return newInstance();
 	}
 }
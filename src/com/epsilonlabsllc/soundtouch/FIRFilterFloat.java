@@ -0,0 +1,129 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * FIR filter for floating point samples. The samples are the raw bit patterns
+ * of floats, as stored in floating point sample buffers. The result isn't
+ * scaled by shifting nor saturated; the integer coefficients are instead
+ * converted to floats and divided by the result divider once when they are
+ * set.
+ */
+public class FIRFilterFloat extends FIRFilter {
+	// Filter coefficients, divided by 'resultDivider'
+	private float[] floatCoeffs;
+
+	@Override
+	protected void setCoefficients(SampleVector coeffs, int newLength, int uResultDivFactor) {
+		int i;
+		float scale;
+
+		super.setCoefficients(coeffs, newLength, uResultDivFactor);
+
+		if (floatCoeffs == null || floatCoeffs.length != length) {
+			floatCoeffs = new float[length];
+		}
+		scale = 1.0f / resultDivider;
+		for (i = 0; i < length; i++) {
+			floatCoeffs[i] = filterCoeffs.get(i) * scale;
+		}
+	}
+
+	@Override
+	protected int evaluateFilterStereo(final int[] d, final int dOff, final int[] s, final int so, int numSamples) {
+		int i, j, end;
+		float suml, sumr;
+
+		assert (length != 0);
+		assert (floatCoeffs != null);
+
+		final float[] c = floatCoeffs;
+
+		end = 2 * (numSamples - length);
+		if (end <= 0)
+			return 0;
+		assert (so + end + 2 * length <= s.length);
+		assert (dOff + end <= d.length);
+
+		for (j = 0; j < end; j += 2) {
+			final int p = so + j;
+			suml = 0;
+			sumr = 0;
+
+			for (i = 0; i < length; i += 4) {
+				final int ps = p + 2 * i;
+				// loop is unrolled by factor of 4 here for efficiency
+				suml += Float.intBitsToFloat(s[ps + 0]) * c[i + 0] + // &nbsp
+						Float.intBitsToFloat(s[ps + 2]) * c[i + 1] + // &nbsp
+						Float.intBitsToFloat(s[ps + 4]) * c[i + 2] + // &nbsp
+						Float.intBitsToFloat(s[ps + 6]) * c[i + 3];
+				sumr += Float.intBitsToFloat(s[ps + 1]) * c[i + 0] + // &nbsp
+						Float.intBitsToFloat(s[ps + 3]) * c[i + 1] + // &nbsp
+						Float.intBitsToFloat(s[ps + 5]) * c[i + 2] + // &nbsp
+						Float.intBitsToFloat(s[ps + 7]) * c[i + 3];
+			}
+
+			d[dOff + j] = Float.floatToRawIntBits(suml);
+			d[dOff + j + 1] = Float.floatToRawIntBits(sumr);
+		}
+		return numSamples - length;
+	}
+
+	@Override
+	protected int evaluateFilterMono(final int[] d, final int dOff, final int[] s, final int so, int numSamples) {
+		int i, j, end;
+		float sum;
+
+		assert (length != 0) : "Length was zero.";
+
+		final float[] c = floatCoeffs;
+
+		end = numSamples - length;
+		if (end <= 0)
+			return 0;
+		assert (so + end + length <= s.length);
+		assert (dOff + end <= d.length);
+
+		for (j = 0; j < end; j++) {
+			final int p = so + j;
+			sum = 0;
+			for (i = 0; i < length; i += 4) {
+				// loop is unrolled by factor of 4 here for efficiency
+				sum += Float.intBitsToFloat(s[p + i + 0]) * c[i + 0] + // &nbsp
+						Float.intBitsToFloat(s[p + i + 1]) * c[i + 1] + // &nbsp
+						Float.intBitsToFloat(s[p + i + 2]) * c[i + 2] + // &nbsp
+						Float.intBitsToFloat(s[p + i + 3]) * c[i + 3];
+			}
+			d[dOff + j] = Float.floatToRawIntBits(sum);
+		}
+
+		return end;
+	}
+
+	@Override
+	protected int evaluateFilterMulti(final int[] d, final int dOff, final int[] s, final int so, int numSamples,
+			int numChannels) {
+		int i, j, ch, end;
+		float sum;
+
+		assert (length != 0);
+
+		final float[] c = floatCoeffs;
+
+		end = numChannels * (numSamples - length);
+		if (end <= 0)
+			return 0;
+		assert (so + end + numChannels * length <= s.length);
+		assert (dOff + end <= d.length);
+
+		for (j = 0; j < end; j += numChannels) {
+			for (ch = 0; ch < numChannels; ch++) {
+				final int p = so + j + ch;
+				sum = 0;
+				for (i = 0; i < length; i++) {
+					sum += Float.intBitsToFloat(s[p + numChannels * i]) * c[i];
+				}
+				d[dOff + j + ch] = Float.floatToRawIntBits(sum);
+			}
+		}
+		return numSamples - length;
+	}
+}
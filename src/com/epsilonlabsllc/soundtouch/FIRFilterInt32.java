@@ -0,0 +1,123 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * FIR filter that accumulates in 32-bit integers, the counterpart of the
+ * MMX/SSE filter routines of the original SoundTouch. The inner loops are
+ * multiply-adds over contiguous arrays, which the JIT compiler can
+ * vectorize.<br>
+ * <br>
+ * The samples must be within 16-bit integer limits, as they are in the
+ * integer pipeline. The 32-bit routines are only used when the coefficients
+ * guarantee that the sums of such samples can't overflow; otherwise the
+ * filtering falls back to the 64-bit routines of {@link FIRFilter}.
+ */
+public class FIRFilterInt32 extends FIRFilter {
+	// Number of output values computed per block; the block's sums are kept
+	// in 'sums', which stays in the L1 cache
+	private static final int BLOCK_SIZE = 256;
+
+	// Coefficients as a plain array
+	private int[] coeffs;
+
+	// Partial sums of the current block of output values, per thread as
+	// blocks can be filtered in parallel
+	private static final ThreadLocal<int[]> sums = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[BLOCK_SIZE];
+		}
+	};
+
+	// True if the 32-bit sums can't overflow with the current coefficients
+	private boolean useInt32;
+
+	@Override
+	protected void setCoefficients(SampleVector newCoeffs, int newLength, int uResultDivFactor) {
+		int i, c;
+		long absSum;
+
+		super.setCoefficients(newCoeffs, newLength, uResultDivFactor);
+
+		if (coeffs == null || coeffs.length != length) {
+			coeffs = new int[length];
+		}
+		absSum = 0;
+		for (i = 0; i < length; i++) {
+			c = filterCoeffs.get(i);
+			coeffs[i] = c;
+			absSum += Math.abs(c);
+		}
+		// largest possible sum of 16-bit samples must fit in 32 bits
+		useInt32 = absSum * 32768 <= Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Filters interleaved samples of any number of channels. Instead of
+	 * computing one output value at a time as a dot product, the routine adds
+	 * the contribution of one filter tap to a whole block of output values at
+	 * a time. Each such step is a multiply-add over two contiguous arrays, the
+	 * same for every channel.
+	 */
+	private int evaluateFilterInterleaved(final int[] d, final int dOff, final int[] s, final int so, int numSamples,
+			int numChannels) {
+		int i, j, k, n, end, sum;
+
+		final int[] c = coeffs;
+		final int[] acc = sums.get();
+
+		end = numChannels * (numSamples - length);
+		if (end <= 0)
+			return 0;
+		assert (so + end + numChannels * length <= s.length);
+		assert (dOff + end <= d.length);
+
+		for (j = 0; j < end; j += BLOCK_SIZE) {
+			n = (end - j < BLOCK_SIZE) ? end - j : BLOCK_SIZE;
+
+			final int c0 = c[0];
+			final int p0 = so + j;
+			for (k = 0; k < n; k++) {
+				acc[k] = c0 * s[p0 + k];
+			}
+			for (i = 1; i < length; i++) {
+				final int ci = c[i];
+				final int ps = so + j + numChannels * i;
+				for (k = 0; k < n; k++) {
+					acc[k] += ci * s[ps + k];
+				}
+			}
+
+			for (k = 0; k < n; k++) {
+				sum = acc[k] >> resultDivFactor;
+				// saturate to 16 bit integer limits
+				d[dOff + j + k] = (sum < -32768) ? -32768 : (sum > 32767) ? 32767 : sum;
+			}
+		}
+		return numSamples - length;
+	}
+
+	@Override
+	protected int evaluateFilterStereo(final int[] d, final int dOff, final int[] s, final int so, int numSamples) {
+		if (!useInt32) {
+			return super.evaluateFilterStereo(d, dOff, s, so, numSamples);
+		}
+		return evaluateFilterInterleaved(d, dOff, s, so, numSamples, 2);
+	}
+
+	@Override
+	protected int evaluateFilterMono(final int[] d, final int dOff, final int[] s, final int so, int numSamples) {
+		if (!useInt32) {
+			return super.evaluateFilterMono(d, dOff, s, so, numSamples);
+		}
+		return evaluateFilterInterleaved(d, dOff, s, so, numSamples, 1);
+	}
+
+	@Override
+	protected int evaluateFilterMulti(final int[] d, final int dOff, final int[] s, final int so, int numSamples,
+			int numChannels) {
+		if (!useInt32) {
+			return super.evaluateFilterMulti(d, dOff, s, so, numSamples, numChannels);
+		}
+		return evaluateFilterInterleaved(d, dOff, s, so, numSamples, numChannels);
+	}
+}
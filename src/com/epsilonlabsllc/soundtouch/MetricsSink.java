@@ -0,0 +1,143 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Receives measurements of what the processing stages are doing: the samples
+ * each stage processes, the time spent in the processing kernels, and how the
+ * sample buffers fill up, grow and move their samples.<br>
+ * <br>
+ * A sink is set with {@link SoundTouch#setMetricsSink(MetricsSink)} or on the
+ * individual stages, filters and buffers. By default no sink is set, and then
+ * nothing is measured, not even the time. The methods are called on the
+ * processing thread right after what they report, so a sink can time-stamp
+ * them as events, e.g. to line up audio glitches with garbage collection
+ * pauses in a recording. They should be cheap and must not allocate memory in
+ * the steady state. A sink shared by several instances must be thread safe.
+ * {@link ProcessingMetrics} is a sink that sums up the measurements.
+ */
+public interface MetricsSink {
+	/**
+	 * Processing stages
+	 */
+	enum Stage {
+		// / Time-stretch, changes the tempo
+		TDSTRETCH,
+		// / Rate transposer, changes the rate
+		RATE_TRANSPOSER
+	}
+
+	/**
+	 * Processing kernels whose time is measured
+	 */
+	enum Kernel {
+		// / TDStretch.seekBestOverlapPosition
+		SEEK,
+		// / TDStretch.overlap
+		OVERLAP,
+		// / The anti-alias filter of the rate transposer
+		FILTER,
+		// / RateTransposer.transpose, the interpolation
+		TRANSPOSE
+	}
+
+	/**
+	 * Called when a stage has processed samples.
+	 *
+	 * @param stage
+	 *            the stage
+	 * @param inputSamples
+	 *            number of input samples consumed
+	 * @param outputSamples
+	 *            number of output samples produced
+	 */
+	void samplesProcessed(Stage stage, int inputSamples, int outputSamples);
+
+	/**
+	 * Called after a call of a processing kernel.
+	 *
+	 * @param kernel
+	 *            the kernel
+	 * @param nanos
+	 *            time spent in the kernel, in nanoseconds
+	 */
+	void kernelTime(Kernel kernel, long nanos);
+
+	/**
+	 * Called when the time-stretch has processed a sequence.
+	 *
+	 * @param offset
+	 *            overlap position chosen by the seek, in samples from the
+	 *            beginning of the seek window
+	 * @param correlation
+	 *            correlation score of the chosen position
+	 * @param seekNanos
+	 *            time spent seeking the position, in nanoseconds
+	 */
+	void sequenceProcessed(int offset, double correlation, long seekNanos);
+
+	/**
+	 * Called when the coefficients of an anti-alias filter have been
+	 * calculated, e.g. when the rate has changed.
+	 *
+	 * @param length
+	 *            number of filter taps
+	 * @param cutoffFreq
+	 *            cut-off frequency, relative to the sampling frequency
+	 * @param nanos
+	 *            time spent, in nanoseconds
+	 */
+	void filterDesigned(int length, double cutoffFreq, long nanos);
+
+	/**
+	 * Called when {@link SoundTouch#flush()} has flushed the pipeline.
+	 *
+	 * @param blankSamples
+	 *            number of blank samples fed to the pipeline to push the last
+	 *            samples out
+	 * @param outputSamples
+	 *            number of samples in the output after the flush
+	 * @param nanos
+	 *            time spent, in nanoseconds
+	 */
+	void flushed(int blankSamples, int outputSamples, long nanos);
+
+	/**
+	 * Called when samples are about to be put to a buffer.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param samples
+	 *            number of samples the buffer has to hold, including room
+	 *            reserved for the samples being put
+	 * @param capacity
+	 *            capacity of the buffer
+	 */
+	void bufferFill(FIFOSampleBuffer buffer, int samples, int capacity);
+
+	/**
+	 * Called when a buffer has allocated a new array, to grow or to be
+	 * trimmed.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param oldCapacity
+	 *            capacity before
+	 * @param newCapacity
+	 *            capacity after
+	 * @param nanos
+	 *            time spent allocating and copying, in nanoseconds
+	 */
+	void bufferReallocated(FIFOSampleBuffer buffer, int oldCapacity, int newCapacity, long nanos);
+
+	/**
+	 * Called when a buffer has moved its samples to the beginning of its
+	 * array.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param bytes
+	 *            number of bytes copied
+	 * @param nanos
+	 *            time spent copying, in nanoseconds
+	 */
+	void bufferRewound(FIFOSampleBuffer buffer, int bytes, long nanos);
+}
@@ -0,0 +1,455 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Changes the tempo and rate of a complete sound at once, processing it in
+ * chunks concurrently.<br>
+ * <br>
+ * The input is split to chunks of 'chunkLength' samples, which are processed
+ * by separate {@link TDStretch} and {@link RateTransposer} instances. Each
+ * instance is fed 'preRoll' samples before its chunk, so that the processing
+ * has settled by the beginning of the chunk, and enough samples after it for
+ * the crossfade with the next chunk. At each seam the output of the next
+ * chunk is aligned to that of the previous one at the offset where they
+ * correlate best, like the sequences of {@link TDStretch} are, and the two
+ * are crossfaded over 'crossfadeLength' output samples.<br>
+ * <br>
+ * The chunks are processed by the threads of an {@link ExecutorService}, or
+ * by the calling thread if none is set. The processing is done with floating
+ * point samples; 16-bit samples are converted.
+ */
+public class OfflineProcessor {
+	// Number of samples fed at a time to a processing chain
+	private static final int BLOCK_LENGTH = 4096;
+	// Number of silent samples fed at a time when flushing a chain
+	private static final int FLUSH_LENGTH = 64;
+	// Maximum number of flushing rounds, as in SoundTouch
+	private static final int MAX_FLUSH_ROUNDS = 128;
+
+	private final int sampleRate;
+	private final int channels;
+
+	private float virtualTempo;
+	private float virtualRate;
+	private float virtualPitch;
+
+	private int chunkLength;
+	private int preRoll;
+	private int crossfadeLength;
+	private int seekLength;
+
+	// Executor processing the chunks, null = the calling thread
+	private ExecutorService executor;
+
+	/**
+	 * Constructor. The chunks are 30 seconds long by default, with half a
+	 * second of pre-roll, and crossfaded over 20 milliseconds; the seams are
+	 * aligned within 10 milliseconds.
+	 *
+	 * @param sampleRate
+	 *            sample rate of the sound
+	 * @param channels
+	 *            number of interleaved channels
+	 */
+	public OfflineProcessor(int sampleRate, int channels) {
+		if (sampleRate <= 0)
+			throw new IllegalArgumentException("OfflineProcessor : sample rate must be positive");
+		if (channels <= 0)
+			throw new IllegalArgumentException("OfflineProcessor : number of channels must be positive");
+
+		this.sampleRate = sampleRate;
+		this.channels = channels;
+		virtualTempo = 1.0f;
+		virtualRate = 1.0f;
+		virtualPitch = 1.0f;
+		chunkLength = 30 * sampleRate;
+		preRoll = sampleRate / 2;
+		crossfadeLength = sampleRate / 50;
+		seekLength = sampleRate / 100;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	// Sets new tempo control value. Normal tempo = 1.0, smaller values
+	// represent slower tempo, larger faster tempo.
+	public void setTempo(float newTempo) {
+		if (newTempo <= 0)
+			throw new IllegalArgumentException("OfflineProcessor : tempo must be positive");
+		virtualTempo = newTempo;
+	}
+
+	// Sets new rate control value. Normal rate = 1.0, smaller values
+	// represent slower rate, larger faster rates.
+	public void setRate(float newRate) {
+		if (newRate <= 0)
+			throw new IllegalArgumentException("OfflineProcessor : rate must be positive");
+		virtualRate = newRate;
+	}
+
+	// Sets new pitch control value. Original pitch = 1.0, smaller values
+	// represent lower pitches, larger values higher pitch.
+	public void setPitch(float newPitch) {
+		if (newPitch <= 0)
+			throw new IllegalArgumentException("OfflineProcessor : pitch must be positive");
+		virtualPitch = newPitch;
+	}
+
+	/**
+	 * Sets the lengths of the chunks.
+	 *
+	 * @param chunkLength
+	 *            number of input samples per chunk
+	 * @param preRoll
+	 *            number of input samples fed before each chunk for the
+	 *            processing to settle
+	 * @param crossfadeLength
+	 *            number of output samples the chunks are crossfaded over
+	 * @param seekLength
+	 *            maximum offset in output samples by which the next chunk is
+	 *            moved to align it with the previous one
+	 */
+	public void setChunking(int chunkLength, int preRoll, int crossfadeLength, int seekLength) {
+		if (chunkLength <= 0)
+			throw new IllegalArgumentException("OfflineProcessor : chunk length must be positive");
+		if (preRoll < 0 || crossfadeLength < 0 || seekLength < 0)
+			throw new IllegalArgumentException("OfflineProcessor : lengths must not be negative");
+
+		this.chunkLength = chunkLength;
+		this.preRoll = preRoll;
+		this.crossfadeLength = crossfadeLength;
+		this.seekLength = seekLength;
+	}
+
+	/**
+	 * Sets the executor that processes the chunks.
+	 *
+	 * @param executor
+	 *            the executor, or <code>null</code> to process the chunks on
+	 *            the calling thread
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Processes 'numSamples' samples of 16-bit integer sound.
+	 *
+	 * @param input
+	 *            interleaved input samples
+	 * @param offset
+	 *            index of the first sample in 'input'
+	 * @param numSamples
+	 *            number of samples (per channel)
+	 * @return the interleaved processed samples
+	 */
+	public short[] process(short[] input, int offset, int numSamples) {
+		float[] floatInput, floatOutput;
+		short[] output;
+		int i;
+
+		floatInput = new float[channels * numSamples];
+		for (i = 0; i < floatInput.length; i++) {
+			floatInput[i] = input[offset + i] / Util.SHORT_SCALE;
+		}
+		floatOutput = process(floatInput, 0, numSamples);
+		output = new short[floatOutput.length];
+		for (i = 0; i < output.length; i++) {
+			output[i] = (short) Util.floatToShort(floatOutput[i]);
+		}
+		return output;
+	}
+
+	/**
+	 * Processes 'numSamples' samples of floating point sound.
+	 *
+	 * @param input
+	 *            interleaved input samples
+	 * @param offset
+	 *            index of the first sample in 'input'
+	 * @param numSamples
+	 *            number of samples (per channel)
+	 * @return the interleaved processed samples
+	 */
+	public float[] process(float[] input, int offset, int numSamples) {
+		int k, numChunks;
+		double ratio;
+		Stitcher stitcher;
+		List<Callable<float[]>> chunks;
+		List<Future<float[]>> futures;
+
+		if (offset < 0 || numSamples < 0 || offset + channels * numSamples > input.length)
+			throw new IllegalArgumentException("OfflineProcessor : invalid input range");
+
+		// input samples consumed per output sample
+		ratio = (double) (virtualTempo / virtualPitch) * (virtualPitch * virtualRate);
+		stitcher = new Stitcher(channels * (int) (numSamples / ratio + 0.5));
+		if (numSamples == 0)
+			return stitcher.result;
+
+		numChunks = (int) (((long) numSamples + chunkLength - 1) / chunkLength);
+		chunks = new ArrayList<Callable<float[]>>(numChunks);
+		for (k = 0; k < numChunks; k++) {
+			chunks.add(new Chunk(input, offset, numSamples, k, ratio));
+		}
+		futures = null;
+		try {
+			if (executor != null) {
+				futures = new ArrayList<Future<float[]>>(numChunks);
+				for (k = 0; k < numChunks; k++) {
+					futures.add(executor.submit(chunks.get(k)));
+				}
+			}
+
+			// stitch the chunks in order as they complete, releasing each
+			// chunk's output once it has been stitched
+			for (k = 0; k < numChunks; k++) {
+				stitcher.add(getChunk(chunks, futures, k), outputStart(k, ratio),
+						(int) ((long) k * chunkLength / ratio + 0.5));
+			}
+			stitcher.finish();
+		} finally {
+			if (futures != null) {
+				for (Future<float[]> future : futures) {
+					if (future != null) {
+						future.cancel(true);
+					}
+				}
+			}
+		}
+		return stitcher.result;
+	}
+
+	// Returns the processed samples of chunk 'k', rethrowing its failure
+	private static float[] getChunk(List<Callable<float[]>> chunks, List<Future<float[]>> futures, int k) {
+		float[] samples;
+
+		try {
+			if (futures == null) {
+				samples = chunks.get(k).call();
+			} else {
+				samples = futures.get(k).get();
+				futures.set(k, null);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("OfflineProcessor : interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw new RuntimeException("OfflineProcessor : chunk failed", e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("OfflineProcessor : chunk failed", e);
+		}
+		chunks.set(k, null);
+		return samples;
+	}
+
+	// Index of the first input sample fed for chunk 'k'
+	private int inputStart(int k) {
+		return (int) Math.max(0, (long) k * chunkLength - preRoll);
+	}
+
+	// Output position of the first output sample of chunk 'k'
+	private int outputStart(int k, double ratio) {
+		return (int) (inputStart(k) / ratio + 0.5);
+	}
+
+	// Returns sample of channel 'ch' of the chunk output 'samples' starting at
+	// output position 'start', at output position 'pos'; silence outside it
+	private float sample(float[] samples, int start, int pos, int ch) {
+		int q = channels * (pos - start) + ch;
+		return (q >= 0 && q < samples.length) ? samples[q] : 0;
+	}
+
+	// Joins the outputs of the chunks to the result
+	private class Stitcher {
+		final float[] result;
+		// Output of the previous chunk and its output position
+		private float[] prev;
+		private int prevStart;
+		// Number of result samples written so far
+		private int written;
+
+		Stitcher(int length) {
+			result = new float[length];
+		}
+
+		/**
+		 * Adds the output of the next chunk, which starts at output position
+		 * 'start'. The previous chunk is copied up to the seam at 'seam', then
+		 * the next chunk is aligned to it and the two are crossfaded.
+		 */
+		void add(float[] next, int start, int seam) {
+			int i, ch, length;
+			float w, fScale;
+
+			if (prev == null) {
+				prev = next;
+				prevStart = start;
+				return;
+			}
+
+			length = Math.min(crossfadeLength, result.length / channels - seam);
+			if (length < 0) {
+				length = 0;
+			}
+			copy(seam);
+			start -= findAlignment(prev, prevStart, next, start, seam, length);
+
+			fScale = (length > 0) ? 1.0f / length : 0;
+			w = 0.5f * fScale;
+			for (i = 0; i < length; i++) {
+				for (ch = 0; ch < channels; ch++) {
+					result[channels * (seam + i) + ch] = sample(prev, prevStart, seam + i, ch) * (1.0f - w)
+							+ sample(next, start, seam + i, ch) * w;
+				}
+				w += fScale;
+			}
+			written = Math.max(written, seam + length);
+			prev = next;
+			prevStart = start;
+		}
+
+		// Copies the rest of the last chunk
+		void finish() {
+			copy(result.length / channels);
+			prev = null;
+		}
+
+		// Copies the previous chunk to the result up to output position 'end'
+		private void copy(int end) {
+			int i, ch;
+
+			for (i = written; i < end; i++) {
+				for (ch = 0; ch < channels; ch++) {
+					result[channels * i + ch] = sample(prev, prevStart, i, ch);
+				}
+			}
+			written = Math.max(written, end);
+		}
+	}
+
+	/**
+	 * Finds the offset in -seekLength..seekLength at which the next chunk
+	 * correlates best with the previous one over the crossfade.
+	 */
+	private int findAlignment(float[] prev, int prevStart, float[] next, int nextStart, int seam, int length) {
+		int i, ch, count, best, numValues;
+		int[] m, c;
+		double[] corrs;
+
+		// the correlation routines need a number of values divisible by 4, so
+		// the last values of the crossfade may be left out
+		numValues = (channels * length) & ~3;
+		if (numValues == 0 || seekLength == 0)
+			return 0;
+
+		count = 2 * seekLength + 1;
+		m = new int[channels * (count - 1 + length)];
+		c = new int[channels * length];
+		for (i = 0; i < count - 1 + length; i++) {
+			for (ch = 0; ch < channels; ch++) {
+				m[channels * i + ch] = Float.floatToRawIntBits(sample(next, nextStart, seam - seekLength + i, ch));
+			}
+		}
+		for (i = 0; i < length; i++) {
+			for (ch = 0; ch < channels; ch++) {
+				c[channels * i + ch] = Float.floatToRawIntBits(sample(prev, prevStart, seam + i, ch));
+			}
+		}
+		corrs = new double[count];
+		CrossCorrelation.newInstance(true).calcCrossCorrs(m, 0, c, 0, channels, numValues, count, 0, corrs);
+
+		best = seekLength;
+		for (i = 0; i < count; i++) {
+			if (corrs[i] > corrs[best]) {
+				best = i;
+			}
+		}
+		return best - seekLength;
+	}
+
+	// Processes one chunk with its own processing chain
+	private class Chunk implements Callable<float[]> {
+		private final float[] input;
+		private final int offset;
+		private final int numSamples;
+		private final int index;
+		private final double ratio;
+
+		Chunk(float[] input, int offset, int numSamples, int index, double ratio) {
+			this.input = input;
+			this.offset = offset;
+			this.numSamples = numSamples;
+			this.index = index;
+			this.ratio = ratio;
+		}
+
+		public float[] call() {
+			int begin, end, pos, n, expected, received, i;
+			long tail;
+			float[] output, silence;
+			FIFOProcessor first, second;
+			TDStretch stretch;
+			RateTransposer transposer;
+
+			begin = inputStart(index);
+			// feed past the end of the chunk to cover the crossfade and the
+			// alignment, and the pre-roll again as margin for the latency of
+			// the processing
+			tail = (long) (index + 1) * chunkLength + preRoll + (long) ((crossfadeLength + seekLength) * ratio + 1);
+			end = (int) Math.min(numSamples, tail);
+
+			stretch = TDStretch.newInstance(false, true);
+			transposer = RateTransposer.newInstance(false, true);
+			stretch.setChannels(channels);
+			transposer.setChannels(channels);
+			stretch.setSampleRate(sampleRate);
+			stretch.setTempo(virtualTempo / virtualPitch);
+			transposer.setRate(virtualPitch * virtualRate);
+			// same order of the stages as in SoundTouch
+			if (SoundTouchSettings.SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER && virtualPitch * virtualRate <= 1.0f) {
+				first = transposer;
+				second = stretch;
+			} else {
+				first = stretch;
+				second = transposer;
+			}
+
+			expected = (int) ((end - begin) / ratio + 0.5);
+			output = new float[channels * expected];
+			received = 0;
+			for (pos = begin; pos < end; pos += n) {
+				n = Math.min(BLOCK_LENGTH, end - pos);
+				first.putSamples(input, offset + channels * pos, n);
+				second.moveSamples(first);
+				received += second.receiveSamples(output, channels * received, expected - received);
+			}
+
+			// push the last samples out with silence, as SoundTouch.flush
+			silence = new float[channels * FLUSH_LENGTH];
+			for (i = 0; i < MAX_FLUSH_ROUNDS && received < expected; i++) {
+				first.putSamples(silence, 0, FLUSH_LENGTH);
+				second.moveSamples(first);
+				received += second.receiveSamples(output, channels * received, expected - received);
+			}
+			return output;
+		}
+	}
+}
@@ -0,0 +1,474 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Formats of interleaved PCM byte streams accepted and produced by
+ * {@link FIFOSamplePipe#putBytes} and {@link FIFOSamplePipe#receiveBytes}.
+ * The byte order is given separately, or taken from the ByteBuffer.<br>
+ * <br>
+ * The samples are converted directly between the bytes and the format of the
+ * sample buffer in one pass, see {@link FIFOSamplePipe#isFloatSamples()}.
+ * Integer sample buffers hold 16-bit samples, so 24-bit input is rounded to
+ * 16 bits, and 24-bit output has 16 significant bits. Floating point buffers
+ * keep the full resolution of 24-bit and 32-bit float input. Integer output
+ * is saturated to the limits of the format.
+ */
+public enum PCMFormat {
+	/** 16-bit signed integer samples */
+	PCM_16(2) {
+		@Override
+		void decode(int[] dest, int destPos, byte[] src, int srcPos, int num, boolean bigEndian, boolean floatSamples) {
+			int i, p;
+
+			assert (destPos + num <= dest.length);
+			assert (srcPos + 2 * num <= src.length);
+
+			p = srcPos;
+			if (bigEndian) {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 2) {
+						dest[destPos + i] = Float.floatToRawIntBits((short) ((src[p] << 8) | (src[p + 1] & 0xff))
+								/ Util.SHORT_SCALE);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 2) {
+						dest[destPos + i] = (short) ((src[p] << 8) | (src[p + 1] & 0xff));
+					}
+				}
+			} else {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 2) {
+						dest[destPos + i] = Float.floatToRawIntBits((short) ((src[p + 1] << 8) | (src[p] & 0xff))
+								/ Util.SHORT_SCALE);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 2) {
+						dest[destPos + i] = (short) ((src[p + 1] << 8) | (src[p] & 0xff));
+					}
+				}
+			}
+		}
+
+		@Override
+		void decode(int[] dest, int destPos, ByteBuffer src, int srcPos, int num, boolean floatSamples) {
+			int i, p;
+
+			p = srcPos;
+			if (floatSamples) {
+				for (i = 0; i < num; i++, p += 2) {
+					dest[destPos + i] = Float.floatToRawIntBits(src.getShort(p) / Util.SHORT_SCALE);
+				}
+			} else {
+				for (i = 0; i < num; i++, p += 2) {
+					dest[destPos + i] = src.getShort(p);
+				}
+			}
+		}
+
+		@Override
+		void encode(byte[] dest, int destPos, int[] src, int srcPos, int num, boolean bigEndian, boolean floatSamples) {
+			int i, p, value;
+
+			assert (destPos + 2 * num <= dest.length);
+			assert (srcPos + num <= src.length);
+
+			p = destPos;
+			if (bigEndian) {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 2) {
+						value = Util.floatToShort(Float.intBitsToFloat(src[srcPos + i]));
+						dest[p] = (byte) (value >> 8);
+						dest[p + 1] = (byte) value;
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 2) {
+						value = saturate16(src[srcPos + i]);
+						dest[p] = (byte) (value >> 8);
+						dest[p + 1] = (byte) value;
+					}
+				}
+			} else {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 2) {
+						value = Util.floatToShort(Float.intBitsToFloat(src[srcPos + i]));
+						dest[p] = (byte) value;
+						dest[p + 1] = (byte) (value >> 8);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 2) {
+						value = saturate16(src[srcPos + i]);
+						dest[p] = (byte) value;
+						dest[p + 1] = (byte) (value >> 8);
+					}
+				}
+			}
+		}
+
+		@Override
+		void encode(ByteBuffer dest, int destPos, int[] src, int srcPos, int num, boolean floatSamples) {
+			int i, p;
+
+			p = destPos;
+			if (floatSamples) {
+				for (i = 0; i < num; i++, p += 2) {
+					dest.putShort(p, (short) Util.floatToShort(Float.intBitsToFloat(src[srcPos + i])));
+				}
+			} else {
+				for (i = 0; i < num; i++, p += 2) {
+					dest.putShort(p, (short) saturate16(src[srcPos + i]));
+				}
+			}
+		}
+	},
+
+	/** 24-bit signed integer samples packed to 3 bytes */
+	PCM_24(3) {
+		@Override
+		void decode(int[] dest, int destPos, byte[] src, int srcPos, int num, boolean bigEndian, boolean floatSamples) {
+			int i, p;
+
+			assert (destPos + num <= dest.length);
+			assert (srcPos + 3 * num <= src.length);
+
+			p = srcPos;
+			if (bigEndian) {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 3) {
+						dest[destPos + i] = Float.floatToRawIntBits(((src[p] << 16) | ((src[p + 1] & 0xff) << 8)
+								| (src[p + 2] & 0xff)) / Util.INT24_SCALE);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 3) {
+						dest[destPos + i] = round24To16((src[p] << 16) | ((src[p + 1] & 0xff) << 8) | (src[p + 2] & 0xff));
+					}
+				}
+			} else {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 3) {
+						dest[destPos + i] = Float.floatToRawIntBits(((src[p + 2] << 16) | ((src[p + 1] & 0xff) << 8)
+								| (src[p] & 0xff)) / Util.INT24_SCALE);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 3) {
+						dest[destPos + i] = round24To16((src[p + 2] << 16) | ((src[p + 1] & 0xff) << 8) | (src[p] & 0xff));
+					}
+				}
+			}
+		}
+
+		@Override
+		void decode(int[] dest, int destPos, ByteBuffer src, int srcPos, int num, boolean floatSamples) {
+			int i, p, hi, lo;
+
+			// the buffer has no 3-byte accessor; read the bytes in its order
+			if (src.order() == ByteOrder.BIG_ENDIAN) {
+				hi = 0;
+				lo = 2;
+			} else {
+				hi = 2;
+				lo = 0;
+			}
+			p = srcPos;
+			if (floatSamples) {
+				for (i = 0; i < num; i++, p += 3) {
+					dest[destPos + i] = Float.floatToRawIntBits(((src.get(p + hi) << 16) | ((src.get(p + 1) & 0xff) << 8)
+							| (src.get(p + lo) & 0xff)) / Util.INT24_SCALE);
+				}
+			} else {
+				for (i = 0; i < num; i++, p += 3) {
+					dest[destPos + i] = round24To16((src.get(p + hi) << 16) | ((src.get(p + 1) & 0xff) << 8)
+							| (src.get(p + lo) & 0xff));
+				}
+			}
+		}
+
+		@Override
+		void encode(byte[] dest, int destPos, int[] src, int srcPos, int num, boolean bigEndian, boolean floatSamples) {
+			int i, p, value;
+
+			assert (destPos + 3 * num <= dest.length);
+			assert (srcPos + num <= src.length);
+
+			p = destPos;
+			if (bigEndian) {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 3) {
+						value = Util.floatToInt24(Float.intBitsToFloat(src[srcPos + i]));
+						dest[p] = (byte) (value >> 16);
+						dest[p + 1] = (byte) (value >> 8);
+						dest[p + 2] = (byte) value;
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 3) {
+						value = saturate16(src[srcPos + i]);
+						dest[p] = (byte) (value >> 8);
+						dest[p + 1] = (byte) value;
+						dest[p + 2] = 0;
+					}
+				}
+			} else {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 3) {
+						value = Util.floatToInt24(Float.intBitsToFloat(src[srcPos + i]));
+						dest[p] = (byte) value;
+						dest[p + 1] = (byte) (value >> 8);
+						dest[p + 2] = (byte) (value >> 16);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 3) {
+						value = saturate16(src[srcPos + i]);
+						dest[p] = 0;
+						dest[p + 1] = (byte) value;
+						dest[p + 2] = (byte) (value >> 8);
+					}
+				}
+			}
+		}
+
+		@Override
+		void encode(ByteBuffer dest, int destPos, int[] src, int srcPos, int num, boolean floatSamples) {
+			int i, p, value, hi, lo;
+
+			if (dest.order() == ByteOrder.BIG_ENDIAN) {
+				hi = 0;
+				lo = 2;
+			} else {
+				hi = 2;
+				lo = 0;
+			}
+			p = destPos;
+			if (floatSamples) {
+				for (i = 0; i < num; i++, p += 3) {
+					value = Util.floatToInt24(Float.intBitsToFloat(src[srcPos + i]));
+					dest.put(p + hi, (byte) (value >> 16));
+					dest.put(p + 1, (byte) (value >> 8));
+					dest.put(p + lo, (byte) value);
+				}
+			} else {
+				for (i = 0; i < num; i++, p += 3) {
+					value = saturate16(src[srcPos + i]);
+					dest.put(p + hi, (byte) (value >> 8));
+					dest.put(p + 1, (byte) value);
+					dest.put(p + lo, (byte) 0);
+				}
+			}
+		}
+	},
+
+	/** 32-bit floating point samples normalized to -1.0 .. 1.0 */
+	FLOAT_32(4) {
+		@Override
+		void decode(int[] dest, int destPos, byte[] src, int srcPos, int num, boolean bigEndian, boolean floatSamples) {
+			int i, p, bits;
+
+			assert (destPos + num <= dest.length);
+			assert (srcPos + 4 * num <= src.length);
+
+			p = srcPos;
+			if (bigEndian) {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 4) {
+						dest[destPos + i] = (src[p] << 24) | ((src[p + 1] & 0xff) << 16) | ((src[p + 2] & 0xff) << 8)
+								| (src[p + 3] & 0xff);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 4) {
+						bits = (src[p] << 24) | ((src[p + 1] & 0xff) << 16) | ((src[p + 2] & 0xff) << 8)
+								| (src[p + 3] & 0xff);
+						dest[destPos + i] = Util.floatToShort(Float.intBitsToFloat(bits));
+					}
+				}
+			} else {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 4) {
+						dest[destPos + i] = (src[p + 3] << 24) | ((src[p + 2] & 0xff) << 16) | ((src[p + 1] & 0xff) << 8)
+								| (src[p] & 0xff);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 4) {
+						bits = (src[p + 3] << 24) | ((src[p + 2] & 0xff) << 16) | ((src[p + 1] & 0xff) << 8)
+								| (src[p] & 0xff);
+						dest[destPos + i] = Util.floatToShort(Float.intBitsToFloat(bits));
+					}
+				}
+			}
+		}
+
+		@Override
+		void decode(int[] dest, int destPos, ByteBuffer src, int srcPos, int num, boolean floatSamples) {
+			int i, p;
+
+			p = srcPos;
+			if (floatSamples) {
+				for (i = 0; i < num; i++, p += 4) {
+					dest[destPos + i] = src.getInt(p);
+				}
+			} else {
+				for (i = 0; i < num; i++, p += 4) {
+					dest[destPos + i] = Util.floatToShort(src.getFloat(p));
+				}
+			}
+		}
+
+		@Override
+		void encode(byte[] dest, int destPos, int[] src, int srcPos, int num, boolean bigEndian, boolean floatSamples) {
+			int i, p, bits;
+
+			assert (destPos + 4 * num <= dest.length);
+			assert (srcPos + num <= src.length);
+
+			p = destPos;
+			if (bigEndian) {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 4) {
+						bits = src[srcPos + i];
+						dest[p] = (byte) (bits >> 24);
+						dest[p + 1] = (byte) (bits >> 16);
+						dest[p + 2] = (byte) (bits >> 8);
+						dest[p + 3] = (byte) bits;
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 4) {
+						bits = Float.floatToRawIntBits(src[srcPos + i] / Util.SHORT_SCALE);
+						dest[p] = (byte) (bits >> 24);
+						dest[p + 1] = (byte) (bits >> 16);
+						dest[p + 2] = (byte) (bits >> 8);
+						dest[p + 3] = (byte) bits;
+					}
+				}
+			} else {
+				if (floatSamples) {
+					for (i = 0; i < num; i++, p += 4) {
+						bits = src[srcPos + i];
+						dest[p] = (byte) bits;
+						dest[p + 1] = (byte) (bits >> 8);
+						dest[p + 2] = (byte) (bits >> 16);
+						dest[p + 3] = (byte) (bits >> 24);
+					}
+				} else {
+					for (i = 0; i < num; i++, p += 4) {
+						bits = Float.floatToRawIntBits(src[srcPos + i] / Util.SHORT_SCALE);
+						dest[p] = (byte) bits;
+						dest[p + 1] = (byte) (bits >> 8);
+						dest[p + 2] = (byte) (bits >> 16);
+						dest[p + 3] = (byte) (bits >> 24);
+					}
+				}
+			}
+		}
+
+		@Override
+		void encode(ByteBuffer dest, int destPos, int[] src, int srcPos, int num, boolean floatSamples) {
+			int i, p;
+
+			p = destPos;
+			if (floatSamples) {
+				for (i = 0; i < num; i++, p += 4) {
+					dest.putInt(p, src[srcPos + i]);
+				}
+			} else {
+				for (i = 0; i < num; i++, p += 4) {
+					dest.putFloat(p, src[srcPos + i] / Util.SHORT_SCALE);
+				}
+			}
+		}
+	};
+
+	private final int bytesPerSample;
+
+	private PCMFormat(int bytesPerSample) {
+		this.bytesPerSample = bytesPerSample;
+	}
+
+	/**
+	 * Returns the size of one sample of one channel in bytes.
+	 */
+	public int getBytesPerSample() {
+		return bytesPerSample;
+	}
+
+	/**
+	 * Converts 'num' samples from the bytes of 'src' starting at index
+	 * 'srcPos' to 'dest' starting at index 'destPos', in the format of a
+	 * sample buffer.
+	 *
+	 * @param bigEndian
+	 *            true if the bytes are in big-endian order
+	 * @param floatSamples
+	 *            true to convert to floating point bit patterns, false to
+	 *            16-bit integer samples
+	 */
+	abstract void decode(int[] dest, int destPos, byte[] src, int srcPos, int num, boolean bigEndian,
+			boolean floatSamples);
+
+	// Same as above for buffers without an accessible array, reading from
+	// absolute index 'srcPos' in the byte order of the buffer
+	abstract void decode(int[] dest, int destPos, ByteBuffer src, int srcPos, int num, boolean floatSamples);
+
+	/**
+	 * Converts 'num' samples in the format of a sample buffer from 'src'
+	 * starting at index 'srcPos' to the bytes of 'dest' starting at index
+	 * 'destPos'.
+	 *
+	 * @param bigEndian
+	 *            true to write the bytes in big-endian order
+	 * @param floatSamples
+	 *            true if the samples are floating point bit patterns, false if
+	 *            they are 16-bit integer samples
+	 */
+	abstract void encode(byte[] dest, int destPos, int[] src, int srcPos, int num, boolean bigEndian,
+			boolean floatSamples);
+
+	// Same as above for buffers without an accessible array, writing from
+	// absolute index 'destPos' in the byte order of the buffer
+	abstract void encode(ByteBuffer dest, int destPos, int[] src, int srcPos, int num, boolean floatSamples);
+
+	/**
+	 * Converts 'num' samples from the position of 'src', in the byte order of
+	 * the buffer, like {@link #decode(int[], int, byte[], int, int, boolean, boolean)}
+	 * and advances the position past them.
+	 */
+	void decode(int[] dest, int destPos, ByteBuffer src, int num, boolean floatSamples) {
+		int pos = src.position();
+
+		assert (num * bytesPerSample <= src.remaining());
+		if (src.hasArray()) {
+			decode(dest, destPos, src.array(), src.arrayOffset() + pos, num, src.order() == ByteOrder.BIG_ENDIAN,
+					floatSamples);
+		} else {
+			decode(dest, destPos, src, pos, num, floatSamples);
+		}
+		src.position(pos + num * bytesPerSample);
+	}
+
+	/**
+	 * Converts 'num' samples to the position of 'dest', in the byte order of
+	 * the buffer, like {@link #encode(byte[], int, int[], int, int, boolean, boolean)}
+	 * and advances the position past them.
+	 */
+	void encode(ByteBuffer dest, int[] src, int srcPos, int num, boolean floatSamples) {
+		int pos = dest.position();
+
+		assert (num * bytesPerSample <= dest.remaining());
+		if (dest.hasArray()) {
+			encode(dest.array(), dest.arrayOffset() + pos, src, srcPos, num, dest.order() == ByteOrder.BIG_ENDIAN,
+					floatSamples);
+		} else {
+			encode(dest, pos, src, srcPos, num, floatSamples);
+		}
+		dest.position(pos + num * bytesPerSample);
+	}
+
+	// Saturates an integer sample to 16 bit integer limits
+	private static int saturate16(int value) {
+		return (value < -32768) ? -32768 : (value > 32767) ? 32767 : value;
+	}
+
+	// Rounds a 24-bit sample to 16 bits
+	private static int round24To16(int value) {
+		value = (value + 128) >> 8;
+		return (value > 32767) ? 32767 : value;
+	}
+}
@@ -0,0 +1,169 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Fans the work of one processing call out to the threads of an
+ * {@link ExecutorService}. The work is a range of independent items, such as
+ * channels or output samples, that is split to at most 'maxTasks' parts. The
+ * first part is run by the calling thread, which then waits for the rest.<br>
+ * <br>
+ * Work smaller than 'minBlockSize' samples per part isn't worth the handover
+ * to another thread, so small calls are run by the calling thread alone. The
+ * executor is owned by the caller. Both it and this object can be shared by
+ * several processing instances.
+ */
+public class ParallelExecution {
+	/**
+	 * Part of the work, called concurrently for disjoint ranges of items.
+	 */
+	public interface Task {
+		/**
+		 * Processes the items 'begin' (inclusive) to 'end' (exclusive).
+		 */
+		void run(int begin, int end);
+	}
+
+	// Runs a part of a task on an executor thread
+	private static class Part implements Runnable {
+		private final Task task;
+		private final int begin;
+		private final int end;
+
+		Part(Task task, int begin, int end) {
+			this.task = task;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		public void run() {
+			task.run(begin, end);
+		}
+	}
+
+	private final ExecutorService executor;
+
+	// Maximum number of parts, including the one of the calling thread
+	private final int maxTasks;
+
+	// Minimum number of samples per part
+	private final int minBlockSize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param executor
+	 *            executor that runs all but the first part of the work
+	 * @param maxTasks
+	 *            maximum number of parts the work is split to, usually the
+	 *            number of threads available for one call
+	 * @param minBlockSize
+	 *            minimum number of samples per part
+	 */
+	public ParallelExecution(ExecutorService executor, int maxTasks, int minBlockSize) {
+		if (executor == null)
+			throw new IllegalArgumentException("ParallelExecution : executor must not be null");
+		if (maxTasks < 1)
+			throw new IllegalArgumentException("ParallelExecution : at least one task is required");
+		if (minBlockSize < 1)
+			throw new IllegalArgumentException("ParallelExecution : block size must be positive");
+
+		this.executor = executor;
+		this.maxTasks = maxTasks;
+		this.minBlockSize = minBlockSize;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public int getMaxTasks() {
+		return maxTasks;
+	}
+
+	public int getMinBlockSize() {
+		return minBlockSize;
+	}
+
+	/**
+	 * Returns the number of parts 'count' items of 'numSamples' samples in
+	 * total are split to.
+	 */
+	public int getTaskCount(int count, int numSamples) {
+		int n;
+
+		n = Math.min(maxTasks, count);
+		n = Math.min(n, numSamples / minBlockSize);
+		return (n < 1) ? 1 : n;
+	}
+
+	/**
+	 * Runs 'task' for 'count' items of 'numSamples' samples in total, and
+	 * returns when all of it is done. The ranges the items are split to are
+	 * in order, and the first one begins from item 0. Exceptions thrown by the
+	 * task are rethrown.
+	 *
+	 * @param count
+	 *            number of items
+	 * @param numSamples
+	 *            number of samples processed for all the items
+	 * @param task
+	 *            the work
+	 */
+	public void execute(int count, int numSamples, Task task) {
+		int i, n;
+		Future<?>[] futures;
+
+		n = getTaskCount(count, numSamples);
+		if (n == 1) {
+			task.run(0, count);
+			return;
+		}
+
+		futures = new Future<?>[n];
+		try {
+			for (i = 1; i < n; i++) {
+				futures[i] = executor.submit(new Part(task, (int) ((long) count * i / n),
+						(int) ((long) count * (i + 1) / n)));
+			}
+			task.run(0, count / n);
+		} finally {
+			awaitParts(futures);
+		}
+	}
+
+	// Waits for the parts run by the executor and rethrows the first failure
+	private static void awaitParts(Future<?>[] futures) {
+		int i;
+		Throwable failure = null;
+		boolean interrupted = false;
+
+		for (i = 1; i < futures.length && futures[i] != null; i++) {
+			while (true) {
+				try {
+					futures[i].get();
+					break;
+				} catch (InterruptedException e) {
+					// the parts write to the caller's memory, so they must
+					// finish before returning
+					interrupted = true;
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = e.getCause();
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw new RuntimeException("ParallelExecution : task failed", failure);
+	}
+}
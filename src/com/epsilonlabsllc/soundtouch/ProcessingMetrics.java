@@ -0,0 +1,337 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link MetricsSink} that sums up the measurements into counters. It is
+ * thread safe, so the same instance can collect the measurements of several
+ * {@link SoundTouch} instances, and the counters can be read from another
+ * thread while the processing goes on.<br>
+ * <br>
+ * For counters per instance and in aggregate, give each instance its own
+ * sink with a common parent, which receives all the measurements too:
+ *
+ * <pre>
+ * ProcessingMetrics total = new ProcessingMetrics();
+ * ProcessingMetrics metrics = new ProcessingMetrics(total);
+ * soundTouch.setMetricsSink(metrics);
+ * </pre>
+ */
+public class ProcessingMetrics implements MetricsSink {
+	private static final int NUM_STAGES = Stage.values().length;
+
+	private static final int NUM_KERNELS = Kernel.values().length;
+
+	// Sink that receives the measurements too, or null
+	private final MetricsSink parent;
+
+	// Input and output samples per stage, indexed by the stage ordinal
+	private final AtomicLongArray inputSamples = new AtomicLongArray(NUM_STAGES);
+	private final AtomicLongArray outputSamples = new AtomicLongArray(NUM_STAGES);
+
+	// Time and number of calls per kernel, indexed by the kernel ordinal
+	private final AtomicLongArray kernelNanos = new AtomicLongArray(NUM_KERNELS);
+	private final AtomicLongArray kernelCalls = new AtomicLongArray(NUM_KERNELS);
+
+	// Largest fill of a buffer, in samples and in percent of its capacity
+	private final AtomicLong peakBufferFill = new AtomicLong();
+	private final AtomicLong peakBufferFillPercent = new AtomicLong();
+
+	private final AtomicLong bufferGrowths = new AtomicLong();
+	private final AtomicLong bufferTrims = new AtomicLong();
+	private final AtomicLong rewoundBytes = new AtomicLong();
+
+	// Time spent reallocating and rewinding the buffers
+	private final AtomicLong bufferNanos = new AtomicLong();
+
+	// Number of sequences processed by the time-stretch, and the lowest
+	// correlation score of their overlap positions as raw double bits
+	private final AtomicLong sequences = new AtomicLong();
+	private final AtomicLong lowestCorrelation = new AtomicLong(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+
+	private final AtomicLong filterDesigns = new AtomicLong();
+	private final AtomicLong filterDesignNanos = new AtomicLong();
+
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong flushNanos = new AtomicLong();
+
+	/**
+	 * Constructor
+	 */
+	public ProcessingMetrics() {
+		this(null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param parent
+	 *            sink that receives all the measurements too, e.g. for
+	 *            aggregating the metrics of several instances, or
+	 *            <code>null</code>
+	 */
+	public ProcessingMetrics(MetricsSink parent) {
+		this.parent = parent;
+	}
+
+	@Override
+	public void samplesProcessed(Stage stage, int input, int output) {
+		inputSamples.addAndGet(stage.ordinal(), input);
+		outputSamples.addAndGet(stage.ordinal(), output);
+		if (parent != null) {
+			parent.samplesProcessed(stage, input, output);
+		}
+	}
+
+	@Override
+	public void kernelTime(Kernel kernel, long nanos) {
+		kernelNanos.addAndGet(kernel.ordinal(), nanos);
+		kernelCalls.incrementAndGet(kernel.ordinal());
+		if (parent != null) {
+			parent.kernelTime(kernel, nanos);
+		}
+	}
+
+	@Override
+	public void sequenceProcessed(int offset, double correlation, long seekNanos) {
+		long current;
+
+		sequences.incrementAndGet();
+		while (correlation < Double.longBitsToDouble(current = lowestCorrelation.get())) {
+			if (lowestCorrelation.compareAndSet(current, Double.doubleToRawLongBits(correlation)))
+				break;
+		}
+		if (parent != null) {
+			parent.sequenceProcessed(offset, correlation, seekNanos);
+		}
+	}
+
+	@Override
+	public void filterDesigned(int length, double cutoffFreq, long nanos) {
+		filterDesigns.incrementAndGet();
+		filterDesignNanos.addAndGet(nanos);
+		if (parent != null) {
+			parent.filterDesigned(length, cutoffFreq, nanos);
+		}
+	}
+
+	@Override
+	public void flushed(int blankSamples, int outputSamples, long nanos) {
+		flushes.incrementAndGet();
+		flushNanos.addAndGet(nanos);
+		if (parent != null) {
+			parent.flushed(blankSamples, outputSamples, nanos);
+		}
+	}
+
+	@Override
+	public void bufferFill(FIFOSampleBuffer buffer, int samples, int capacity) {
+		updateMax(peakBufferFill, samples);
+		if (capacity > 0) {
+			updateMax(peakBufferFillPercent, 100L * samples / capacity);
+		}
+		if (parent != null) {
+			parent.bufferFill(buffer, samples, capacity);
+		}
+	}
+
+	@Override
+	public void bufferReallocated(FIFOSampleBuffer buffer, int oldCapacity, int newCapacity, long nanos) {
+		if (newCapacity > oldCapacity) {
+			bufferGrowths.incrementAndGet();
+		} else {
+			bufferTrims.incrementAndGet();
+		}
+		bufferNanos.addAndGet(nanos);
+		if (parent != null) {
+			parent.bufferReallocated(buffer, oldCapacity, newCapacity, nanos);
+		}
+	}
+
+	@Override
+	public void bufferRewound(FIFOSampleBuffer buffer, int bytes, long nanos) {
+		rewoundBytes.addAndGet(bytes);
+		bufferNanos.addAndGet(nanos);
+		if (parent != null) {
+			parent.bufferRewound(buffer, bytes, nanos);
+		}
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current;
+
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value))
+				return;
+		}
+	}
+
+	/**
+	 * Returns the number of input samples the stage has consumed.
+	 */
+	public long getInputSamples(Stage stage) {
+		return inputSamples.get(stage.ordinal());
+	}
+
+	/**
+	 * Returns the number of output samples the stage has produced.
+	 */
+	public long getOutputSamples(Stage stage) {
+		return outputSamples.get(stage.ordinal());
+	}
+
+	/**
+	 * Returns the total time spent in the kernel, in nanoseconds.
+	 */
+	public long getKernelNanos(Kernel kernel) {
+		return kernelNanos.get(kernel.ordinal());
+	}
+
+	/**
+	 * Returns the number of calls of the kernel.
+	 */
+	public long getKernelCalls(Kernel kernel) {
+		return kernelCalls.get(kernel.ordinal());
+	}
+
+	/**
+	 * Returns the largest number of samples a buffer has had to hold.
+	 */
+	public long getPeakBufferFill() {
+		return peakBufferFill.get();
+	}
+
+	/**
+	 * Returns the largest fill of a buffer in percent of its capacity.
+	 */
+	public long getPeakBufferFillPercent() {
+		return peakBufferFillPercent.get();
+	}
+
+	/**
+	 * Returns how many times a buffer has grown.
+	 */
+	public long getBufferGrowths() {
+		return bufferGrowths.get();
+	}
+
+	/**
+	 * Returns how many times a buffer has been trimmed.
+	 */
+	public long getBufferTrims() {
+		return bufferTrims.get();
+	}
+
+	/**
+	 * Returns the number of bytes the buffers have copied when rewinding.
+	 */
+	public long getRewoundBytes() {
+		return rewoundBytes.get();
+	}
+
+	/**
+	 * Returns the time spent reallocating and rewinding the buffers, in
+	 * nanoseconds.
+	 */
+	public long getBufferNanos() {
+		return bufferNanos.get();
+	}
+
+	/**
+	 * Returns the number of sequences the time-stretch has processed.
+	 */
+	public long getSequences() {
+		return sequences.get();
+	}
+
+	/**
+	 * Returns the lowest correlation score of the overlap positions chosen
+	 * for the sequences, or <code>Double.POSITIVE_INFINITY</code> if none has
+	 * been processed. A low score means that the sequences were joined at a
+	 * poor match, which may be heard as a glitch.
+	 */
+	public double getLowestCorrelation() {
+		return Double.longBitsToDouble(lowestCorrelation.get());
+	}
+
+	/**
+	 * Returns how many times the anti-alias filter coefficients have been
+	 * calculated.
+	 */
+	public long getFilterDesigns() {
+		return filterDesigns.get();
+	}
+
+	/**
+	 * Returns the time spent calculating the anti-alias filter coefficients,
+	 * in nanoseconds.
+	 */
+	public long getFilterDesignNanos() {
+		return filterDesignNanos.get();
+	}
+
+	/**
+	 * Returns how many times the pipeline has been flushed.
+	 */
+	public long getFlushes() {
+		return flushes.get();
+	}
+
+	/**
+	 * Returns the time spent flushing the pipeline, in nanoseconds.
+	 */
+	public long getFlushNanos() {
+		return flushNanos.get();
+	}
+
+	/**
+	 * Zeroes all the counters. Doesn't reset the parent.
+	 */
+	public void reset() {
+		int i;
+
+		for (i = 0; i < NUM_STAGES; i++) {
+			inputSamples.set(i, 0);
+			outputSamples.set(i, 0);
+		}
+		for (i = 0; i < NUM_KERNELS; i++) {
+			kernelNanos.set(i, 0);
+			kernelCalls.set(i, 0);
+		}
+		peakBufferFill.set(0);
+		peakBufferFillPercent.set(0);
+		bufferGrowths.set(0);
+		bufferTrims.set(0);
+		rewoundBytes.set(0);
+		bufferNanos.set(0);
+		sequences.set(0);
+		lowestCorrelation.set(Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+		filterDesigns.set(0);
+		filterDesignNanos.set(0);
+		flushes.set(0);
+		flushNanos.set(0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		for (Stage stage : Stage.values()) {
+			sb.append(stage).append(": in=").append(getInputSamples(stage)).append(" out=")
+					.append(getOutputSamples(stage)).append('\n');
+		}
+		for (Kernel kernel : Kernel.values()) {
+			sb.append(kernel).append(": calls=").append(getKernelCalls(kernel)).append(" ms=")
+					.append(getKernelNanos(kernel) / 1000000).append('\n');
+		}
+		sb.append("buffers: peak=").append(getPeakBufferFill()).append(" (").append(getPeakBufferFillPercent())
+				.append("%) growths=").append(getBufferGrowths()).append(" trims=").append(getBufferTrims())
+				.append(" rewound bytes=").append(getRewoundBytes()).append(" ms=").append(getBufferNanos() / 1000000)
+				.append('\n');
+		sb.append("sequences=").append(getSequences()).append(" lowest correlation=").append(getLowestCorrelation())
+				.append('\n');
+		sb.append("filter designs=").append(getFilterDesigns()).append(" flushes=").append(getFlushes());
+		return sb.toString();
+	}
+}
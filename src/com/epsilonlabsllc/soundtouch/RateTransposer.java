@@ -1,5 +1,8 @@
 package com.epsilonlabsllc.soundtouch;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public abstract class RateTransposer extends FIFOProcessor {
 	protected AAFilter pAAFilter;
 
@@ -25,25 +28,134 @@ public abstract class RateTransposer extends FIFOProcessor {
 
 	protected boolean bUseAAFilter;
 
+	// Executes long transposing calls in parallel, null = on the calling
+	// thread
+	protected ParallelExecution parallelExecution;
+
+	// Transposes a range of channels of the current parallel call
+	private class Transposition implements ParallelExecution.Task {
+		int[] dest;
+		int destOffset;
+		int[] src;
+		int srcOffset;
+		int numSamples;
+		int result;
+
+		public void run(int begin, int end) {
+			int count;
+
+			count = transposeChannels(dest, destOffset, src, srcOffset, numSamples, begin, end);
+			if (begin == 0) {
+				result = count;
+			}
+		}
+	}
+
+	// Task of the parallel calls, created when first needed
+	private Transposition transposition;
+
+	// Sink of the processing measurements, null = nothing is measured
+	protected MetricsSink metrics;
+
 	protected int iSlopeCount;
 	protected int iRate;
 	protected float sPrevSampleL, sPrevSampleR;
 	
 	public RateTransposer() {
+		this(false);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param circularBuffers
+	 *            true to use {@link CircularSampleBuffer}s for the store and
+	 *            output buffers
+	 */
+	public RateTransposer(boolean circularBuffers) {
+		this(circularBuffers, false);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param circularBuffers
+	 *            true to use {@link CircularSampleBuffer}s for the store and
+	 *            output buffers
+	 * @param floatSamples
+	 *            true if the subclass processes floating point samples
+	 */
+	protected RateTransposer(boolean circularBuffers, boolean floatSamples) {
+		this.storeBuffer = FIFOSampleBuffer.newInstance(2, circularBuffers, floatSamples);
+		this.tempBuffer = new FIFOSampleBuffer(2, floatSamples);
+		this.outputBuffer = FIFOSampleBuffer.newInstance(2, circularBuffers, floatSamples);
+		setOutPipe(this.outputBuffer);
+
 		this.numChannels = 2; // Default to stereo
 		this.bUseAAFilter = true;
 		this.fRate = 0.0f;
 
 		// Instantiates the anti-alias filter with default tap length
 		// of 32
-		pAAFilter = new AAFilter(32);
+		pAAFilter = new AAFilter(32, floatSamples);
 	}
 
 	protected abstract void resetRegisters();
 
-	protected abstract int transposeStereo(SampleVector dest, final SampleVector src);
+	protected abstract int transposeStereo(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples);
 
-	protected abstract int transposeMono(SampleVector dest, final SampleVector src);
+	protected abstract int transposeMono(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples);
+
+	/**
+	 * Transposes the channels 'chBegin' to 'chEnd' - 1 of interleaved samples
+	 * of 'numChannels' channels. Calls for disjoint ranges of channels can run
+	 * concurrently: the interpolation position isn't advanced until
+	 * {@link #endTransposeChannels()} is called, after the calls for all the
+	 * channels. Returns the number of samples written to each channel.
+	 */
+	protected abstract int transposeChannels(int[] dest, int destOffset, final int[] src, int srcOffset,
+			int numSamples, int chBegin, int chEnd);
+
+	/**
+	 * Advances the interpolation position over the samples transposed with
+	 * {@link #transposeChannels}.
+	 */
+	protected abstract void endTransposeChannels();
+
+	/**
+	 * Transposes interleaved samples of 'numChannels' channels, for other
+	 * than mono or stereo sound
+	 */
+	protected int transposeMulti(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples) {
+		int count;
+
+		count = transposeChannels(dest, destOffset, src, srcOffset, numSamples, 0, numChannels);
+		endTransposeChannels();
+		return count;
+	}
+
+	/**
+	 * Transposes the channels in parallel. Every part interpolates at the same
+	 * positions, so all of them write the same number of samples.
+	 */
+	private int transposeParallel(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples) {
+		if (transposition == null) {
+			transposition = new Transposition();
+		}
+		transposition.dest = dest;
+		transposition.destOffset = destOffset;
+		transposition.src = src;
+		transposition.srcOffset = srcOffset;
+		transposition.numSamples = numSamples;
+		try {
+			parallelExecution.execute(numChannels, numChannels * numSamples, transposition);
+		} finally {
+			transposition.dest = null;
+			transposition.src = null;
+		}
+		endTransposeChannels();
+		return transposition.result;
+	}
 
 	/**
 	 * Transposes the sample rate of the given samples using linear
@@ -51,14 +163,21 @@ public abstract class RateTransposer extends FIFOProcessor {
 	 * buffer
 	 * 
 	 * @param dest
+	 * @param destOffset
 	 * @param src
+	 * @param srcOffset
+	 * @param numSamples
 	 * @return
 	 */
-	protected int transpose(SampleVector dest, final SampleVector src) {
-		if (numChannels == 2) {
-			return transposeStereo(dest, src);
+	protected int transpose(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples) {
+		if (parallelExecution != null && parallelExecution.getTaskCount(numChannels, numChannels * numSamples) > 1) {
+			return transposeParallel(dest, destOffset, src, srcOffset, numSamples);
+		} else if (numChannels == 2) {
+			return transposeStereo(dest, destOffset, src, srcOffset, numSamples);
+		} else if (numChannels == 1) {
+			return transposeMono(dest, destOffset, src, srcOffset, numSamples);
 		} else {
-			return transposeMono(dest, src);
+			return transposeMulti(dest, destOffset, src, srcOffset, numSamples);
 		}
 	}
 
@@ -67,9 +186,11 @@ public abstract class RateTransposer extends FIFOProcessor {
 	 * the sound to increase
 	 * 
 	 * @param src
+	 * @param srcOffset
+	 * @param numSamples
 	 */
-	protected void downsample(SampleVector src) {
-		int count, sizeTemp;
+	protected void downsample(final int[] src, int srcOffset, int numSamples) {
+		int count, sizeTemp, destPos;
 
 		// If the parameter 'uRate' value is larger than 'SCALE', first apply
 		// the
@@ -78,7 +199,7 @@ public abstract class RateTransposer extends FIFOProcessor {
 		// over the lover frequencies), then transpose.
 
 		// Add the new samples to the end of the storeBuffer
-		storeBuffer.putSamples(src);
+		storeBuffer.putSamples(src, srcOffset, numSamples);
 
 		// Anti-alias filter the samples to prevent folding and output the
 		// filtered
@@ -88,8 +209,9 @@ public abstract class RateTransposer extends FIFOProcessor {
 		assert (tempBuffer.isEmpty());
 		sizeTemp = storeBuffer.numSamples();
 
-		count = pAAFilter.evaluate(tempBuffer.ptrEnd(sizeTemp),
-				storeBuffer.ptrBegin(), (int) numChannels);
+		destPos = tempBuffer.ptrEndOffset(sizeTemp);
+		count = filter(tempBuffer.getArray(), destPos, storeBuffer.getArray(), storeBuffer.ptrBeginOffset(),
+				sizeTemp);
 
 		if (count == 0)
 			return;
@@ -99,8 +221,9 @@ public abstract class RateTransposer extends FIFOProcessor {
 
 		// Transpose the samples (+16 is to reserve some slack in the
 		// destination buffer)
-		sizeTemp = (int) ((float) src.size() / fRate + 16.0f);
-		count = transpose(outputBuffer.ptrEnd(sizeTemp), tempBuffer.ptrBegin());
+		sizeTemp = (int) ((float) numSamples / fRate + 16.0f);
+		destPos = outputBuffer.ptrEndOffset(sizeTemp);
+		count = timedTranspose(outputBuffer.getArray(), destPos, tempBuffer.getArray(), tempBuffer.ptrBeginOffset(), count);
 		outputBuffer.putSamples(count);
 	}
 
@@ -109,9 +232,11 @@ public abstract class RateTransposer extends FIFOProcessor {
 	 * the sound to decrease
 	 * 
 	 * @param src
+	 * @param srcOffset
+	 * @param numSamples
 	 */
-	protected void upsample(SampleVector src) {
-		int count, sizeTemp, num;
+	protected void upsample(final int[] src, int srcOffset, int numSamples) {
+		int count, sizeTemp, num, destPos;
 
 		// If the parameter 'uRate' value is smaller than 'SCALE', first
 		// transpose
@@ -119,17 +244,18 @@ public abstract class RateTransposer extends FIFOProcessor {
 
 		// First check that there's enough room in 'storeBuffer'
 		// (+16 is to reserve some slack in the destination buffer)
-		sizeTemp = (int) ((float) src.size() / this.fRate + 16.0f);
+		sizeTemp = (int) ((float) numSamples / this.fRate + 16.0f);
 
 		// Transpose the samples, store the result into the end of "storeBuffer"
-		count = transpose(storeBuffer.ptrEnd(sizeTemp), src);
+		destPos = storeBuffer.ptrEndOffset(sizeTemp);
+		count = timedTranspose(storeBuffer.getArray(), destPos, src, srcOffset, numSamples);
 		storeBuffer.putSamples(count);
 
 		// Apply the anti-alias filter to samples in "store output", output the
 		// result to "dest"
 		num = storeBuffer.numSamples();
-		count = pAAFilter.evaluate(outputBuffer.ptrEnd(num),
-				storeBuffer.ptrBegin(), (int) this.numChannels);
+		destPos = outputBuffer.ptrEndOffset(num);
+		count = filter(outputBuffer.getArray(), destPos, storeBuffer.getArray(), storeBuffer.ptrBeginOffset(), num);
 		outputBuffer.putSamples(count);
 
 		// Remove the processed samples from "storeBuffer"
@@ -144,30 +270,77 @@ public abstract class RateTransposer extends FIFOProcessor {
 	 * 
 	 * @param samples
 	 *            samples to be processed?
+	 * @param offset
+	 *            index of the first sample in 'samples'
+	 * @param numSamples
+	 *            number of samples to process
 	 */
-	protected void processSamples(SampleVector samples) {
+	protected void processSamples(final int[] samples, int offset, int numSamples) {
 		int count;
 		int sizeReq;
+		int destPos;
+		int numOutput;
 
-		if (samples.size() == 0)
+		if (numSamples == 0)
 			return;
 		assert (pAAFilter != null) : "The pAAFilter cannot be null.";
 
-		// If anti-alias filter is turned off, simply transpose without applying
-		// the filter
+		numOutput = (metrics != null) ? outputBuffer.numSamples() : 0;
+
 		if (bUseAAFilter == false) {
-			sizeReq = (int) ((float) samples.size() / fRate + 1.0f);
-			count = transpose(outputBuffer.ptrEnd(sizeReq), samples);
+			// If anti-alias filter is turned off, simply transpose without
+			// applying the filter
+			sizeReq = (int) ((float) numSamples / fRate + 1.0f);
+			destPos = outputBuffer.ptrEndOffset(sizeReq);
+			count = timedTranspose(outputBuffer.getArray(), destPos, samples, offset, numSamples);
 			outputBuffer.putSamples(count);
-			return;
+		} else if (fRate < 1.0f) {
+			// Transpose with anti-alias filter
+			upsample(samples, offset, numSamples);
+		} else {
+			downsample(samples, offset, numSamples);
 		}
 
-		// Transpose with anti-alias filter
-		if (fRate < 1.0f) {
-			upsample(samples);
-		} else {
-			downsample(samples);
+		if (metrics != null) {
+			metrics.samplesProcessed(MetricsSink.Stage.RATE_TRANSPOSER, numSamples, outputBuffer.numSamples()
+					- numOutput);
+		}
+	}
+
+	/**
+	 * Calls {@link #transpose(int[], int, int[], int, int)}, measuring the
+	 * time if a metrics sink is set.
+	 */
+	private int timedTranspose(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples) {
+		long start;
+		int count;
+
+		if (metrics == null) {
+			return transpose(dest, destOffset, src, srcOffset, numSamples);
+		}
+		start = System.nanoTime();
+		count = transpose(dest, destOffset, src, srcOffset, numSamples);
+		metrics.kernelTime(MetricsSink.Kernel.TRANSPOSE, System.nanoTime() - start);
+		return count;
+	}
+
+	/**
+	 * Applies the anti-alias filter to 'numSamples' samples, measuring the
+	 * time if a metrics sink is set.
+	 * 
+	 * @return number of samples filtered to 'dest'
+	 */
+	private int filter(int[] dest, int destOffset, final int[] src, int srcOffset, int numSamples) {
+		long start;
+		int count;
+
+		if (metrics == null) {
+			return pAAFilter.evaluate(dest, destOffset, src, srcOffset, numSamples, numChannels);
 		}
+		start = System.nanoTime();
+		count = pAAFilter.evaluate(dest, destOffset, src, srcOffset, numSamples, numChannels);
+		metrics.kernelTime(MetricsSink.Kernel.FILTER, System.nanoTime() - start);
+		return count;
 	}
 
 	/**
@@ -182,6 +355,35 @@ public abstract class RateTransposer extends FIFOProcessor {
 		return new RateTransposerInteger();
 	}
 
+	/**
+	 * Same as {@link #newInstance()}, optionally using circular sample
+	 * buffers.
+	 * 
+	 * @param circularBuffers
+	 *            true to use {@link CircularSampleBuffer}s
+	 * @return a new <code>RateTransponser</code>
+	 */
+	public static RateTransposer newInstance(boolean circularBuffers) {
+		return new RateTransposerInteger(circularBuffers);
+	}
+
+	/**
+	 * Same as {@link #newInstance(boolean)}, choosing between the integer and
+	 * the floating point implementation.
+	 * 
+	 * @param circularBuffers
+	 *            true to use {@link CircularSampleBuffer}s
+	 * @param floatSamples
+	 *            true to process floating point samples
+	 * @return a new <code>RateTransponser</code>
+	 */
+	public static RateTransposer newInstance(boolean circularBuffers, boolean floatSamples) {
+		if (floatSamples) {
+			return new RateTransposerFloat(circularBuffers);
+		}
+		return new RateTransposerInteger(circularBuffers);
+	}
+
 	/**
 	 * Returns the output buffer object
 	 * 
@@ -251,17 +453,17 @@ public abstract class RateTransposer extends FIFOProcessor {
 	}
 
 	/**
-	 * Sets the number of channels, 1 = mono, 2 = stereo
+	 * Sets the number of channels, 1 = mono, 2 = stereo, more for
+	 * interleaved multichannel sound
 	 * 
 	 * @param channels
-	 *            either mono or stereo
+	 *            number of channels
 	 */
 	public void setChannels(int nChannels) {
 		assert (nChannels > 0);
 		if (numChannels == nChannels)
 			return;
 
-		assert (nChannels == 1 || nChannels == 2);
 		numChannels = nChannels;
 
 		storeBuffer.setChannels(numChannels);
@@ -272,6 +474,111 @@ public abstract class RateTransposer extends FIFOProcessor {
 		resetRegisters();
 	}
 
+	/**
+	 * Returns the worst-case algorithmic latency of the stage in input
+	 * samples, i.e. the most input that can arrive after a sample before the
+	 * sample is output. The anti-alias filter holds back half of its length,
+	 * at the input or the output sample rate depending on which side of the
+	 * transposition it filters, and the interpolation holds back one sample.
+	 * 
+	 * @return the latency in input samples
+	 */
+	public int getLatency() {
+		int half;
+
+		if (bUseAAFilter == false) {
+			return 1;
+		}
+		half = pAAFilter.getLength() / 2;
+		if (fRate < 1.0f) {
+			// filtered after upsampling, at the output sample rate
+			return (int) Math.ceil(half * fRate) + 1;
+		}
+		return half + 1;
+	}
+
+	/**
+	 * Returns the number of input samples held in the store buffer of the
+	 * anti-alias filter that haven't been output yet.
+	 * 
+	 * @return number of samples, in input samples
+	 */
+	public int getBufferedSamples() {
+		int num = storeBuffer.numSamples();
+
+		if (bUseAAFilter && fRate < 1.0f) {
+			// the store buffer holds upsampled samples
+			return (int) Math.ceil(num * fRate);
+		}
+		return num;
+	}
+
+	/**
+	 * Sets the pool the sample arrays are taken from and returned to. If
+	 * <code>null</code>, the arrays are allocated directly.
+	 * 
+	 * @param pool
+	 *            the pool, or <code>null</code>
+	 */
+	public void setBufferPool(SampleBufferPool pool) {
+		storeBuffer.setBufferPool(pool);
+		tempBuffer.setBufferPool(pool);
+		outputBuffer.setBufferPool(pool);
+		pAAFilter.setBufferPool(pool);
+	}
+
+	/**
+	 * Sets the sink of the processing measurements of this stage, its
+	 * buffers and its anti-alias filter.
+	 * 
+	 * @param sink
+	 *            the sink, or <code>null</code> to measure nothing
+	 */
+	public void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+		storeBuffer.setMetricsSink(sink);
+		tempBuffer.setMetricsSink(sink);
+		outputBuffer.setMetricsSink(sink);
+		pAAFilter.setMetricsSink(sink);
+	}
+
+	/**
+	 * Returns the memory of the sample buffers and the anti-alias filter to
+	 * the buffer pool. The object must not be used after this call.
+	 */
+	public void close() {
+		storeBuffer.close();
+		tempBuffer.close();
+		outputBuffer.close();
+		pAAFilter.close();
+	}
+
+	/**
+	 * Sets the executor for processing long blocks of samples in parallel.
+	 * The channels are transposed concurrently, and the anti-alias filter
+	 * filters ranges of samples concurrently.
+	 * 
+	 * @param execution
+	 *            the executor, or <code>null</code> to process on the calling
+	 *            thread
+	 */
+	public void setParallelExecution(ParallelExecution execution) {
+		parallelExecution = execution;
+		pAAFilter.setParallelExecution(execution);
+	}
+
+	/**
+	 * Sets the allocation policy of the sample buffers
+	 * 
+	 * @param policy
+	 *            the new policy
+	 */
+	public void setCapacityPolicy(CapacityPolicy policy) {
+		storeBuffer.setCapacityPolicy(policy);
+		tempBuffer.setCapacityPolicy(policy);
+		outputBuffer.setCapacityPolicy(policy);
+	}
+
 	/**
 	 * Adds 'numSamples' pcs of samples from the 'samples' memory position into
 	 * the input of the object.
@@ -281,7 +588,54 @@ public abstract class RateTransposer extends FIFOProcessor {
 	 */
 	@Override
 	public void putSamples(SampleVector samples) {
-		processSamples(samples);
+		processSamples(samples.getArray(), samples.getOffset(), samples.size());
+	}
+
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
+		processSamples(samples, offset, numSamples);
+	}
+
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		int pos;
+
+		// Convert the samples into the free part of 'tempBuffer'. They are
+		// consumed before the transposing routines write to 'tempBuffer'.
+		assert (tempBuffer.isEmpty());
+		pos = tempBuffer.copyToEnd(samples, offset, numSamples);
+		processSamples(tempBuffer.getArray(), pos, numSamples);
+	}
+
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		int pos;
+
+		// Convert the samples into the free part of 'tempBuffer', see above
+		assert (tempBuffer.isEmpty());
+		pos = tempBuffer.copyToEnd(samples, offset, numSamples);
+		processSamples(tempBuffer.getArray(), pos, numSamples);
+	}
+
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		int pos;
+
+		// Convert the samples into the free part of 'tempBuffer', see above
+		assert (tempBuffer.isEmpty());
+		pos = tempBuffer.copyToEnd(data, offset, numSamples, format, order);
+		processSamples(tempBuffer.getArray(), pos, numSamples);
+	}
+
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		int pos, numSamples;
+
+		// Convert the samples into the free part of 'tempBuffer', see above
+		assert (tempBuffer.isEmpty());
+		numSamples = data.remaining() / (format.getBytesPerSample() * numChannels);
+		pos = tempBuffer.copyToEnd(data, numSamples, format);
+		processSamples(tempBuffer.getArray(), pos, numSamples);
 	}
 
 	/**
@@ -291,11 +645,20 @@ public abstract class RateTransposer extends FIFOProcessor {
 	@Override
 	public void clear() {
 		outputBuffer.clear();
+		clearInput();
+	}
+
+	/**
+	 * Clears the samples waiting for processing, but leaves the output
+	 * samples untouched.
+	 */
+	public void clearInput() {
 	    storeBuffer.clear();
+	    resetRegisters();
 	}
 	
 	@Override
-	boolean isEmpty() {
+	public boolean isEmpty() {
 		boolean res;
 
 	    res = super.isEmpty();
@@ -0,0 +1,223 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.Arrays;
+
+/// A linear samplerate transposer class that uses floating point arithmetics
+/// for the transposing. The samples are the raw bit patterns of floats, as
+/// stored in floating point sample buffers.
+public class RateTransposerFloat extends RateTransposer {
+	private float fSlopeCount;
+	// Last samples of all channels
+	private float[] prevSamples;
+	// Interpolation position after the current call of transposeChannels
+	private float endSlopeCount;
+
+	// Constructor
+	public RateTransposerFloat() {
+		this(false);
+	}
+
+	// Constructor
+	public RateTransposerFloat(boolean circularBuffers) {
+		super(circularBuffers, true);
+		// Notice: use local function calling syntax for sake of clarity,
+		// to indicate the fact that C++ constructor can't call virtual
+		// functions.
+		resetRegisters();
+		setRate(1.0f);
+	}
+
+	/**
+	 * sets fSlopeCount and prevSamples to 0
+	 */
+	public void resetRegisters() {
+		fSlopeCount = 0;
+		if (prevSamples == null || prevSamples.length < Math.max(numChannels, 2)) {
+			prevSamples = new float[Math.max(numChannels, 2)];
+		} else {
+			Arrays.fill(prevSamples, 0f);
+		}
+	}
+
+	/**
+	 * transposes a mono SampleVetor from src to dest
+	 */
+	@Override
+	protected int transposeMono(final int[] d, final int dOff, final int[] s, final int so, int srcSize) {
+		int i, used;
+
+		if (srcSize == 0)
+			return 0; // no samples, no work
+
+		assert (so + srcSize <= s.length);
+
+		used = 0;
+		i = 0;
+
+		// Process the last sample saved from the previous call first...
+		while (fSlopeCount <= 1.0f) {
+			d[dOff + i] = Float.floatToRawIntBits((1.0f - fSlopeCount) * prevSamples[0] + fSlopeCount * Float.intBitsToFloat(s[so]));
+			i++;
+			fSlopeCount += fRate;
+		}
+		// now always (fSlopeCount > 1.0f)
+		fSlopeCount -= 1.0f;
+
+		boolean done = (srcSize == 1);
+		while (!done) {
+			while (fSlopeCount > 1.0f) {
+				fSlopeCount -= 1.0f;
+				used++;
+				if (used >= srcSize - 1) {
+					done = true;
+					break;
+				}
+			}
+			if (done)
+				break;
+			d[dOff + i] = Float.floatToRawIntBits((1.0f - fSlopeCount) * Float.intBitsToFloat(s[so + used]) + fSlopeCount
+					* Float.intBitsToFloat(s[so + used + 1]));
+
+			i++;
+			fSlopeCount += fRate;
+		}
+
+		// Store the last sample for the next round
+		prevSamples[0] = Float.intBitsToFloat(s[so + srcSize - 1]);
+
+		return i;
+	}
+
+	/**
+	 * transposes a stereo SampleVector from src to dest
+	 */
+	@Override
+	protected int transposeStereo(final int[] d, final int dOff, final int[] s, final int so, int srcSize) {
+		int srcPos, i, used;
+		float vol1;
+
+		if (srcSize == 0)
+			return 0; // no samples, no work
+
+		assert (so + 2 * srcSize <= s.length);
+
+		used = 0;
+		i = 0;
+
+		// Process the last sample saved from the previous call first...
+		while (fSlopeCount <= 1.0f) {
+			vol1 = 1.0f - fSlopeCount;
+			d[dOff + 2 * i] = Float.floatToRawIntBits(vol1 * prevSamples[0] + fSlopeCount * Float.intBitsToFloat(s[so]));
+			d[dOff + 2 * i + 1] = Float.floatToRawIntBits(vol1 * prevSamples[1] + fSlopeCount * Float.intBitsToFloat(s[so + 1]));
+			i++;
+			fSlopeCount += fRate;
+		}
+		// now always (fSlopeCount > 1.0f)
+		fSlopeCount -= 1.0f;
+
+		boolean done = (srcSize == 1);
+		while (!done) {
+			while (fSlopeCount > 1.0f) {
+				fSlopeCount -= 1.0f;
+				used++;
+				if (used >= srcSize - 1) {
+					done = true;
+					break;
+				}
+			}
+			if (done)
+				break;
+			srcPos = so + 2 * used;
+			vol1 = 1.0f - fSlopeCount;
+			d[dOff + 2 * i] = Float.floatToRawIntBits(Float.intBitsToFloat(s[srcPos]) * vol1 + fSlopeCount
+					* Float.intBitsToFloat(s[srcPos + 2]));
+			d[dOff + 2 * i + 1] = Float.floatToRawIntBits(Float.intBitsToFloat(s[srcPos + 1]) * vol1 + fSlopeCount
+					* Float.intBitsToFloat(s[srcPos + 3]));
+
+			i++;
+			fSlopeCount += fRate;
+		}
+
+		// Store the last sample for the next round
+		prevSamples[0] = Float.intBitsToFloat(s[so + 2 * srcSize - 2]);
+		prevSamples[1] = Float.intBitsToFloat(s[so + 2 * srcSize - 1]);
+
+		return i;
+	}
+
+	/**
+	 * transposes the channels 'chBegin' to 'chEnd' - 1 of interleaved samples
+	 * from src to dest
+	 */
+	@Override
+	protected int transposeChannels(final int[] d, final int dOff, final int[] s, final int so, int srcSize,
+			int chBegin, int chEnd) {
+		int srcPos, destPos, i, ch, used;
+		float vol1, slopeCount;
+
+		final int channels = numChannels;
+
+		if (srcSize == 0)
+			return 0; // no samples, no work
+
+		assert (so + channels * srcSize <= s.length);
+		assert (0 <= chBegin && chBegin < chEnd && chEnd <= channels);
+
+		used = 0;
+		i = 0;
+		slopeCount = fSlopeCount;
+
+		// Process the last samples saved from the previous call first...
+		while (slopeCount <= 1.0f) {
+			vol1 = 1.0f - slopeCount;
+			destPos = dOff + channels * i;
+			for (ch = chBegin; ch < chEnd; ch++) {
+				d[destPos + ch] = Float.floatToRawIntBits(vol1 * prevSamples[ch] + slopeCount
+						* Float.intBitsToFloat(s[so + ch]));
+			}
+			i++;
+			slopeCount += fRate;
+		}
+		// now always (slopeCount > 1.0f)
+		slopeCount -= 1.0f;
+
+		boolean done = (srcSize == 1);
+		while (!done) {
+			while (slopeCount > 1.0f) {
+				slopeCount -= 1.0f;
+				used++;
+				if (used >= srcSize - 1) {
+					done = true;
+					break;
+				}
+			}
+			if (done)
+				break;
+			srcPos = so + channels * used;
+			destPos = dOff + channels * i;
+			vol1 = 1.0f - slopeCount;
+			for (ch = chBegin; ch < chEnd; ch++) {
+				d[destPos + ch] = Float.floatToRawIntBits(Float.intBitsToFloat(s[srcPos + ch]) * vol1 + slopeCount
+						* Float.intBitsToFloat(s[srcPos + channels + ch]));
+			}
+
+			i++;
+			slopeCount += fRate;
+		}
+
+		// Store the last samples for the next round
+		for (ch = chBegin; ch < chEnd; ch++) {
+			prevSamples[ch] = Float.intBitsToFloat(s[so + channels * (srcSize - 1) + ch]);
+		}
+		if (chBegin == 0) {
+			endSlopeCount = slopeCount;
+		}
+
+		return i;
+	}
+
+	@Override
+	protected void endTransposeChannels() {
+		fSlopeCount = endSlopeCount;
+	}
+}
@@ -6,11 +6,19 @@ public class RateTransposerInteger extends RateTransposer {
 	// / fixed-point interpolation routine precision
 	private static final int SCALE = 65536;
 	private int iSlopeCount;
-	private int sPrevSampleL;
-	private int sPrevSampleR;
+	// Last samples of all channels
+	private int[] prevSamples;
+	// Interpolation position after the current call of transposeChannels
+	private int endSlopeCount;
 
 	// Constructor
 	public RateTransposerInteger() {
+		this(false);
+	}
+
+	// Constructor
+	public RateTransposerInteger(boolean circularBuffers) {
+		super(circularBuffers);
 		// Notice: use local function calling syntax for sake of clarity,
 		// to indicate the fact that C++ constructor can't call virtual
 		// functions.
@@ -19,59 +27,66 @@ public class RateTransposerInteger extends RateTransposer {
 	}
 
 	/**
-	 * sets iSlopeCount, sPrevSampleL and sPrevSampleR to 0
+	 * sets iSlopeCount and prevSamples to 0
 	 */
 	public void resetRegisters() {
 		iSlopeCount = 0;
-		sPrevSampleL = 0;
-		sPrevSampleR = 0;
+		if (prevSamples == null || prevSamples.length < Math.max(numChannels, 2)) {
+			prevSamples = new int[Math.max(numChannels, 2)];
+		} else {
+			Util.memset(prevSamples, 0, 0, prevSamples.length);
+		}
 	}
 
 	/**
 	 * transposes a mono SampleVetor from src to dest
 	 */
 	@Override
-	protected int transposeMono(SampleVector dest, SampleVector src) {
+	protected int transposeMono(final int[] d, final int dOff, final int[] s, final int so, int srcSize) {
 		int i, used;
 		long temp, vol1; // these are large samples
 
-		if (src.size() == 0)
+		if (srcSize == 0)
 			return 0; // no samples, no work
 
+		assert (so + srcSize <= s.length);
+
 		used = 0;
 		i = 0;
 
 		// Process the last sample saved from the previous call first...
 		while (iSlopeCount <= SCALE) {
 			vol1 = SCALE - iSlopeCount;
-			temp = vol1 * sPrevSampleL + iSlopeCount * src.get(0);
-			dest.set(i, (int) (temp / SCALE));
+			temp = vol1 * prevSamples[0] + iSlopeCount * s[so];
+			d[dOff + i] = (int) (temp / SCALE);
 			i++;
 			iSlopeCount += iRate;
 		}
 		// now always (iSlopeCount > SCALE)
 		iSlopeCount -= SCALE;
 
-		boolean done = false;
+		boolean done = (srcSize == 1);
 		while (!done) {
 			while (iSlopeCount > SCALE) {
 				iSlopeCount -= SCALE;
 				used++;
-				if (used >= src.size() - 1) {
+				if (used >= srcSize - 1) {
 					done = true;
 					break;
 				}
 			}
+			if (done)
+				break;
 			vol1 = SCALE - iSlopeCount;
-			temp = src.get(used) * vol1 + iSlopeCount * src.get(used + 1);
-			dest.set(i, (int) (temp / SCALE));
+			temp = s[so + used] * vol1 + iSlopeCount * s[so + used + 1];
+			d[dOff + i] = (int) (temp / SCALE);
 
 			i++;
 			iSlopeCount += iRate;
 		}
 
 		// Store the last sample for the next round
-		sPrevSampleL = (int) src.get(src.size() - 1);
+		prevSamples[0] = s[so + srcSize - 1];
 
 		return i;
 	}
@@ -80,57 +95,133 @@ public class RateTransposerInteger extends RateTransposer {
 	 * transposes a stereo SampleVector from src to dest
 	 */
 	@Override
-	protected int transposeStereo(SampleVector dest, SampleVector src) {
+	protected int transposeStereo(final int[] d, final int dOff, final int[] s, final int so, int srcSize) {
 		int srcPos, i, used;
 		double temp, vol1;
 
-		if (src.size() == 0)
+		if (srcSize == 0)
 			return 0; // no samples, no work
 
+		assert (so + 2 * srcSize <= s.length);
+
 		used = 0;
 		i = 0;
 
-		// Process the last sample saved from the sPrevSampleLious call first...
+		// Process the last sample saved from the previous call first...
 		while (iSlopeCount <= SCALE) {
 			vol1 = (SCALE - iSlopeCount);
-			temp = vol1 * sPrevSampleL + iSlopeCount * src.get(0);
-			dest.set(2 * i, (int) (temp / SCALE));
-			temp = vol1 * sPrevSampleR + iSlopeCount * src.get(1);
-			dest.set(2 * i + 1, (int) (temp / SCALE));
+			temp = vol1 * prevSamples[0] + iSlopeCount * s[so];
+			d[dOff + 2 * i] = (int) (temp / SCALE);
+			temp = vol1 * prevSamples[1] + iSlopeCount * s[so + 1];
+			d[dOff + 2 * i + 1] = (int) (temp / SCALE);
 			i++;
 			iSlopeCount += iRate;
 		}
 		// now always (iSlopeCount > SCALE)
 		iSlopeCount -= SCALE;
 
-		boolean done = false;
+		boolean done = (srcSize == 1);
 		while (!done) {
 			while (iSlopeCount > SCALE) {
 				iSlopeCount -= SCALE;
 				used++;
-				if (used >= src.size() - 1) {
+				if (used >= srcSize - 1) {
 					done = true;
 					break;
 				}
 			}
-			srcPos = 2 * used;
+			if (done)
+				break;
+			srcPos = so + 2 * used;
 			vol1 = (SCALE - iSlopeCount);
-			temp = src.get(srcPos) * vol1 + iSlopeCount * src.get(srcPos + 2);
-			dest.set(2 * i, (int) (temp / SCALE));
-			temp = src.get(srcPos + 1) * vol1 + iSlopeCount * src.get(srcPos + 3);
-			dest.set(2 * i + 1, (int) (temp / SCALE));
+			temp = s[srcPos] * vol1 + iSlopeCount * s[srcPos + 2];
+			d[dOff + 2 * i] = (int) (temp / SCALE);
+			temp = s[srcPos + 1] * vol1 + iSlopeCount * s[srcPos + 3];
+			d[dOff + 2 * i + 1] = (int) (temp / SCALE);
 
 			i++;
 			iSlopeCount += iRate;
 		}
 
 		// Store the last sample for the next round
-		sPrevSampleL = (int) src.get(2 * src.size() - 2);
-		sPrevSampleR = (int) src.get(2 * src.size() - 1);
+		prevSamples[0] = s[so + 2 * srcSize - 2];
+		prevSamples[1] = s[so + 2 * srcSize - 1];
+
+		return i;
+	}
+
+	/**
+	 * transposes the channels 'chBegin' to 'chEnd' - 1 of interleaved samples
+	 * from src to dest
+	 */
+	@Override
+	protected int transposeChannels(final int[] d, final int dOff, final int[] s, final int so, int srcSize,
+			int chBegin, int chEnd) {
+		int srcPos, destPos, i, ch, used, slopeCount;
+		long vol1;
+
+		final int channels = numChannels;
+
+		if (srcSize == 0)
+			return 0; // no samples, no work
+
+		assert (so + channels * srcSize <= s.length);
+		assert (0 <= chBegin && chBegin < chEnd && chEnd <= channels);
+
+		used = 0;
+		i = 0;
+		slopeCount = iSlopeCount;
+
+		// Process the last samples saved from the previous call first...
+		while (slopeCount <= SCALE) {
+			vol1 = SCALE - slopeCount;
+			destPos = dOff + channels * i;
+			for (ch = chBegin; ch < chEnd; ch++) {
+				d[destPos + ch] = (int) ((vol1 * prevSamples[ch] + (long) slopeCount * s[so + ch]) / SCALE);
+			}
+			i++;
+			slopeCount += iRate;
+		}
+		// now always (slopeCount > SCALE)
+		slopeCount -= SCALE;
+
+		boolean done = (srcSize == 1);
+		while (!done) {
+			while (slopeCount > SCALE) {
+				slopeCount -= SCALE;
+				used++;
+				if (used >= srcSize - 1) {
+					done = true;
+					break;
+				}
+			}
+			if (done)
+				break;
+			srcPos = so + channels * used;
+			destPos = dOff + channels * i;
+			vol1 = SCALE - slopeCount;
+			for (ch = chBegin; ch < chEnd; ch++) {
+				d[destPos + ch] = (int) ((s[srcPos + ch] * vol1 + (long) slopeCount * s[srcPos + channels + ch]) / SCALE);
+			}
+
+			i++;
+			slopeCount += iRate;
+		}
+
+		// Store the last samples for the next round
+		System.arraycopy(s, so + channels * (srcSize - 1) + chBegin, prevSamples, chBegin, chEnd - chBegin);
+		if (chBegin == 0) {
+			endSlopeCount = slopeCount;
+		}
 
 		return i;
 	}
 
+	@Override
+	protected void endTransposeChannels() {
+		iSlopeCount = endSlopeCount;
+	}
+
 	@Override
 	public void setRate(float newRate) {
 		iRate = (int) (newRate * SCALE + 0.5f);
@@ -0,0 +1,129 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A pool of sample arrays that can be shared by several {@link SoundTouch}
+ * instances, also across threads. Arrays are kept in power-of-two size
+ * classes, so an array returned by one instance can be reused by another one
+ * that needs a slightly different size.<br>
+ * <br>
+ * The contents of an acquired array are undefined.
+ */
+public class SampleBufferPool {
+	// Smallest size class is 2^MIN_SIZE_BITS elements
+	private static final int MIN_SIZE_BITS = 4;
+
+	// Largest pooled size class is 2^MAX_SIZE_BITS elements; larger arrays
+	// are not pooled
+	private static final int MAX_SIZE_BITS = 24;
+
+	private static final int NUM_SIZE_CLASSES = MAX_SIZE_BITS - MIN_SIZE_BITS + 1;
+
+	// Free arrays of each size class
+	private final ConcurrentLinkedQueue<int[]>[] freeArrays;
+
+	// Number of free arrays in each size class
+	private final AtomicIntegerArray freeCounts;
+
+	// Maximum number of free arrays kept in each size class
+	private final int maxFreePerClass;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxFreePerClass
+	 *            maximum number of free arrays kept per size class; arrays
+	 *            released beyond that are left to the garbage collector
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public SampleBufferPool(int maxFreePerClass) {
+		assert (maxFreePerClass >= 0);
+		this.maxFreePerClass = maxFreePerClass;
+		this.freeCounts = new AtomicIntegerArray(NUM_SIZE_CLASSES);
+		this.freeArrays = new ConcurrentLinkedQueue[NUM_SIZE_CLASSES];
+		for (int i = 0; i < NUM_SIZE_CLASSES; i++) {
+			this.freeArrays[i] = new ConcurrentLinkedQueue<int[]>();
+		}
+	}
+
+	/**
+	 * Returns the size class of arrays of at least 'minLength' elements, or
+	 * -1 if such arrays are not pooled.
+	 */
+	private static int sizeClass(int minLength) {
+		int bits = MIN_SIZE_BITS;
+		while ((1 << bits) < minLength) {
+			bits++;
+			if (bits > MAX_SIZE_BITS)
+				return -1;
+		}
+		return bits - MIN_SIZE_BITS;
+	}
+
+	/**
+	 * Returns an array of at least 'minLength' elements, reusing a released
+	 * array if one is available.
+	 *
+	 * @param minLength
+	 *            minimum length of the array
+	 * @return an array with undefined contents
+	 */
+	public int[] acquire(int minLength) {
+		int sizeClass = sizeClass(minLength);
+		int[] array;
+
+		if (sizeClass < 0) {
+			return new int[minLength];
+		}
+		array = freeArrays[sizeClass].poll();
+		if (array != null) {
+			freeCounts.decrementAndGet(sizeClass);
+			return array;
+		}
+		return new int[1 << (sizeClass + MIN_SIZE_BITS)];
+	}
+
+	/**
+	 * Returns an array to the pool. The caller must not use the array after
+	 * this call.
+	 *
+	 * @param array
+	 *            an array, or <code>null</code>
+	 */
+	public void release(int[] array) {
+		int sizeClass;
+
+		if (array == null) {
+			return;
+		}
+		sizeClass = sizeClass(array.length);
+		// only pool arrays whose length is exactly a size class
+		if (sizeClass < 0 || array.length != 1 << (sizeClass + MIN_SIZE_BITS)) {
+			return;
+		}
+		if (freeCounts.incrementAndGet(sizeClass) > maxFreePerClass) {
+			freeCounts.decrementAndGet(sizeClass);
+			return;
+		}
+		freeArrays[sizeClass].offer(array);
+	}
+
+	/**
+	 * Returns an array from 'pool', or a new array if 'pool' is
+	 * <code>null</code>.
+	 */
+	static int[] newArray(SampleBufferPool pool, int minLength) {
+		return (pool == null) ? new int[minLength] : pool.acquire(minLength);
+	}
+
+	/**
+	 * Returns an array to 'pool', if 'pool' isn't <code>null</code>.
+	 */
+	static void recycle(SampleBufferPool pool, int[] array) {
+		if (pool != null) {
+			pool.release(array);
+		}
+	}
+}
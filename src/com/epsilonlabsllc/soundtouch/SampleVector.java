@@ -1,37 +1,81 @@
 package com.epsilonlabsllc.soundtouch;
 
+/**
+ * A view onto a slice of an <code>int[]</code> sample array. The view is
+ * described by the backing array, the base offset of its first element and a
+ * size. DSP kernels should fetch the backing array with {@link #getArray()}
+ * and the base offset with {@link #getOffset()} once, and then run on the raw
+ * array; {@link #get(int)} and {@link #set(int, int)} are provided for
+ * compatibility and non-critical code paths.
+ */
 public class SampleVector {
 	private final int[] samples;
 	private final int size;
+	private final int offset;
 	
 	public SampleVector(int size) {
 		this.samples = new int[size];
 		this.size = size;
+		this.offset = 0;
 	}
 	
 	public SampleVector(int[] samples) {
 		this.samples = samples;
 		this.size = samples.length;
+		this.offset = 0;
 	}
 	
 	public SampleVector(int[] samples, int size) {
 		this.samples = samples;
 		this.size = size;
+		this.offset = 0;
 	}
 	
-	public int get(int index) {
-		return this.samples[index];
+	/**
+	 * Constructor
+	 * @param samples backing array
+	 * @param size size of the view
+	 * @param offset index of the first element of the view in the backing array
+	 */
+	public SampleVector(int[] samples, int size, int offset) {
+		assert (offset >= 0);
+		this.samples = samples;
+		this.size = size;
+		this.offset = offset;
+	}
+	
+	public final int get(int index) {
+		return this.samples[this.offset + index];
+	}
+	
+	public final void set(int index, int value) {
+		this.samples[this.offset + index] = value;
 	}
 	
-	public void set(int index, int value) {
-		this.samples[index] = value;
+	/**
+	 * Returns the backing array of this view. Element <code>i</code> of the
+	 * view is <code>getArray()[getOffset() + i]</code>.
+	 * @return the backing array
+	 */
+	public final int[] getArray() {
+		return this.samples;
+	}
+	
+	/**
+	 * Returns the index of the first element of this view in the backing array.
+	 * @return the base offset
+	 */
+	public final int getOffset() {
+		return this.offset;
 	}
 	
 	public SampleVector size(int newSize) {
-		return new SampleVector(this.samples, newSize);
+		if (newSize == this.size)
+			return this;
+		return new SampleVector(this.samples, newSize, this.offset);
 	}
 	
-	public int size() {
+	public final int size() {
 		return this.size;
 	}
 	
@@ -43,6 +87,8 @@ public class SampleVector {
 	 * @return
 	 */
 	public SampleVector shift(int shiftDistance) {
-		return new OffsetSampleVector(this.samples, this.size, shiftDistance);
+		if (shiftDistance == 0)
+			return this;
+		return new SampleVector(this.samples, this.size, this.offset + shiftDistance);
 	}
 }
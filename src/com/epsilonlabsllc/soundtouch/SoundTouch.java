@@ -1,14 +1,20 @@
 package com.epsilonlabsllc.soundtouch;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class SoundTouch extends FIFOProcessor {
 	public static final int SAMPLE_TYPE_SIZE = 4;
 
+	// / Sequence, seek window and overlap lengths (ms) of the low-latency
+	// / profile, see setLowLatencyProfile()
+	public static final int LOW_LATENCY_SEQUENCE_MS = 8;
+	public static final int LOW_LATENCY_SEEKWINDOW_MS = 4;
+	public static final int LOW_LATENCY_OVERLAP_MS = 2;
+
 	private RateTransposer pRateTransposer;
 	private TDStretch pTDStretch;
 
-	// / Internal pipe where processed samples are put.
-	protected FIFOSamplePipe output;
-
 	// / Virtual pitch parameter. Effective rate & tempo are calculated from
 	// these parameters.
 	private float virtualRate;
@@ -35,12 +41,42 @@ public class SoundTouch extends FIFOProcessor {
 	// and 'virtualPitch'
 	protected float tempo;
 
+	// / Blank samples fed by flush(), kept between the calls. Only read, so it
+	// stays zeroed.
+	private int[] flushBuffer;
+
+	// Sink of the flush measurements, null = nothing is measured
+	private MetricsSink metrics;
+
 	/**
 	 * Constructor
 	 */
 	public SoundTouch() {
-		pRateTransposer = RateTransposer.newInstance();
-		pTDStretch = TDStretch.newInstance();
+		this(false);
+	}
+
+	/**
+	 * Constructor
+	 * @param circularBuffers true to use {@link CircularSampleBuffer}s in the
+	 *            processing stages instead of linear buffers that are rewound
+	 *            when new samples are put to them
+	 */
+	public SoundTouch(boolean circularBuffers) {
+		this(circularBuffers, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param circularBuffers true to use {@link CircularSampleBuffer}s in the
+	 *            processing stages
+	 * @param floatSamples true to process floating point samples instead of
+	 *            16-bit integer samples. Floating point samples aren't
+	 *            quantized nor saturated between the processing stages, and
+	 *            float input and output need no conversion.
+	 */
+	public SoundTouch(boolean circularBuffers, boolean floatSamples) {
+		pRateTransposer = RateTransposer.newInstance(circularBuffers, floatSamples);
+		pTDStretch = TDStretch.newInstance(circularBuffers, floatSamples);
 
 		setOutPipe(pTDStretch);
 		rate = tempo = 0;
@@ -121,90 +157,288 @@ public class SoundTouch extends FIFOProcessor {
 
 	// Sets new rate control value. Normal rate = 1.0, smaller values
 	// represent slower rate, larger faster rates.
-	void setRate(float newRate) {
+	public void setRate(float newRate) {
 		virtualRate = newRate;
 		calcEffectiveRateAndTempo();
 	}
 
 	// Sets new rate control value as a difference in percents compared
 	// to the original rate (-50 .. +100 %)
-	void setRateChange(float newRate) {
+	public void setRateChange(float newRate) {
 		virtualRate = 1.0f + 0.01f * newRate;
 		calcEffectiveRateAndTempo();
 	}
 
 	// Sets new tempo control value. Normal tempo = 1.0, smaller values
 	// represent slower tempo, larger faster tempo.
-	void setTempo(float newTempo) {
+	public void setTempo(float newTempo) {
 		virtualTempo = newTempo;
 		calcEffectiveRateAndTempo();
 	}
 
 	// Sets new tempo control value as a difference in percents compared
 	// to the original tempo (-50 .. +100 %)
-	void setTempoChange(float newTempo) {
+	public void setTempoChange(float newTempo) {
 		virtualTempo = 1.0f + 0.01f * newTempo;
 		calcEffectiveRateAndTempo();
 	}
 
 	// Sets new pitch control value. Original pitch = 1.0, smaller values
 	// represent lower pitches, larger values higher pitch.
-	void setPitch(float newPitch) {
+	public void setPitch(float newPitch) {
 		virtualPitch = newPitch;
 		calcEffectiveRateAndTempo();
 	}
 
 	// Sets pitch change in octaves compared to the original pitch
 	// (-1.00 .. +1.00)
-	void setPitchOctaves(float newPitch) {
+	public void setPitchOctaves(float newPitch) {
 		virtualPitch = (float) Math.exp(0.69314718056f * newPitch);
 		calcEffectiveRateAndTempo();
 	}
 
 	// Sets pitch change in semi-tones compared to the original pitch
 	// (-12 .. +12)
-	void setPitchSemiTones(int newPitch) {
+	public void setPitchSemiTones(int newPitch) {
 		setPitchOctaves((float) newPitch / 12.0f);
 	}
 
-	void setPitchSemiTones(float newPitch) {
+	public void setPitchSemiTones(float newPitch) {
 		setPitchOctaves(newPitch / 12.0f);
 	}
 
+	/**
+	 * Sets the pool the sample arrays of the processing pipeline are taken
+	 * from and returned to. The same pool can be shared by several instances.
+	 * If <code>null</code>, the arrays are allocated directly.
+	 * 
+	 * @param pool
+	 *            the pool, or <code>null</code>
+	 */
+	public void setBufferPool(SampleBufferPool pool) {
+		pRateTransposer.setBufferPool(pool);
+		pTDStretch.setBufferPool(pool);
+	}
+
+	/**
+	 * Sets the sink of the measurements of the processing stages and their
+	 * buffers: the samples each stage processes, the time spent in the
+	 * processing kernels, and the fill levels, reallocations and rewinds of
+	 * the buffers. The same sink can be shared by several instances if it is
+	 * thread safe, see {@link ProcessingMetrics}. If <code>null</code>, the
+	 * default, nothing is measured.
+	 * 
+	 * @param sink
+	 *            the sink, or <code>null</code>
+	 */
+	public void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+		pRateTransposer.setMetricsSink(sink);
+		pTDStretch.setMetricsSink(sink);
+	}
+
+	/**
+	 * Returns the memory of the processing pipeline to the buffer pool. The
+	 * object must not be used after this call.
+	 */
+	public void close() {
+		pRateTransposer.close();
+		pTDStretch.close();
+	}
+
+	/**
+	 * Sets the executor for processing long blocks of samples in parallel on
+	 * several threads, to cut the processing time of a single high channel
+	 * count or high sample rate stream. The rate transposition runs channels
+	 * concurrently and the anti-alias filtering ranges of samples; the
+	 * overlap position seek is shared by all channels and stays on the
+	 * calling thread. Blocks smaller than the minimum block size of the
+	 * executor are processed on the calling thread.
+	 * 
+	 * @param execution
+	 *            the executor, or <code>null</code> to process everything on
+	 *            the calling thread
+	 */
+	public void setParallelExecution(ParallelExecution execution) {
+		pRateTransposer.setParallelExecution(execution);
+	}
+
+	/**
+	 * Sets the allocation policy of all the sample buffers of the processing
+	 * pipeline. With a maximum capacity set, putting more samples than the
+	 * buffers can hold throws an <code>IllegalStateException</code>; receive
+	 * the processed samples more often to avoid that.
+	 * 
+	 * @param policy
+	 *            the new policy
+	 */
+	public void setCapacityPolicy(CapacityPolicy policy) {
+		pRateTransposer.setCapacityPolicy(policy);
+		pTDStretch.setCapacityPolicy(policy);
+	}
+
+	// Sets the number of channels, 1 = mono, 2 = stereo, more for
+	// interleaved multichannel sound
+	public void setChannels(int numChannels) {
+		if (numChannels < 1) {
+			throw new RuntimeException("SoundTouch : Illegal number of channels");
+		}
+		channels = numChannels;
+		pRateTransposer.setChannels(numChannels);
+		pTDStretch.setChannels(numChannels);
+	}
+
+	@Override
+	public int getChannels() {
+		return channels;
+	}
+
+	// Returns the nominal number of input samples that triggers a processing
+	// batch, i.e. a good amount of samples to put at a time
+	public int getInputSampleReq() {
+		int size = pTDStretch.getInputSampleReq();
+
+		if (SoundTouchSettings.SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER && rate <= 1.0f) {
+			// the rate is transposed before the tempo is changed
+			return (int) (size * rate + 0.5);
+		}
+		return size;
+	}
+
+	// Returns the worst-case algorithmic latency of the processing pipeline
+	// in input samples, i.e. the most input that can arrive after a sample
+	// before the sample is available in the output, with the current tempo,
+	// rate and time-stretch parameters. Putting samples in larger blocks adds
+	// up to the block size on top of this.
+	public int getLatency() {
+		if (SoundTouchSettings.SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER && rate <= 1.0f) {
+			// the rate is transposed first; a sample of the tempo changer
+			// spans 'rate' input samples
+			return pRateTransposer.getLatency() + (int) Math.ceil(pTDStretch.getLatency() * rate);
+		}
+		// the tempo is changed first; a sample of the rate transposer spans
+		// 'tempo' input samples
+		return pTDStretch.getLatency() + (int) Math.ceil(pRateTransposer.getLatency() * tempo);
+	}
+
+	// Returns the number of input samples currently held inside the
+	// processing stages that haven't made it to the output yet. Together
+	// with numSamples() this is the current delay of the pipeline.
+	public int getBufferedSamples() {
+		if (SoundTouchSettings.SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER && rate <= 1.0f) {
+			return pRateTransposer.getBufferedSamples() + (int) Math.ceil(pTDStretch.getBufferedSamples() * rate);
+		}
+		return pTDStretch.getBufferedSamples() + (int) Math.ceil(pRateTransposer.getBufferedSamples() * tempo);
+	}
+
+	// Sets the time-stretch parameters: the length of a processing sequence,
+	// the length of the window the best overlapping position is seeked from,
+	// and the length of the overlap, in milliseconds. Zero sequence or seek
+	// window length selects the automatic setting by tempo; zero or negative
+	// overlap leaves the overlap as it is. Shorter lengths lower the latency
+	// at some expense of sound quality.
+	public void setTimeStretchParameters(int sequenceMs, int seekWindowMs, int overlapMs) {
+		pTDStretch.setParameters(0, sequenceMs, seekWindowMs, overlapMs);
+	}
+
+	// Selects the low-latency profile: short sequences, seek window and
+	// overlap, so that the output comes in small batches and the latency
+	// stays below 30 ms as long as the effective tempo (tempo / pitch) is at
+	// most 2, e.g. for pitch shifts within an octave at the nominal tempo.
+	// getLatency() returns the exact bound for the current settings. The
+	// shorter sequences are better suited for speech than for music.
+	public void setLowLatencyProfile() {
+		setTimeStretchParameters(LOW_LATENCY_SEQUENCE_MS, LOW_LATENCY_SEEKWINDOW_MS, LOW_LATENCY_OVERLAP_MS);
+	}
+
 	// Sets sample rate.
-	void setSampleRate(int srate) {
+	public void setSampleRate(int srate) {
 		bSrateSet = true;
 		// set sample rate, leave other tempo changer parameters as they are.
 		pTDStretch.setSampleRate(srate);
 	}
 
 	void putSamples(SampleVector samples) {
+		putSamples(samples.getArray(), samples.getOffset(), samples.size());
+	}
+
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
 		// Adds 'numSamples' pcs of samples from the 'samples' memory position
 		// into
 		// the input of the object.
+		FIFOProcessor inputStage = getInputStage();
+		inputStage.putSamples(samples, offset, numSamples);
+		moveFromInputStage(inputStage);
+	}
+
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		// Adds 'numSamples' pcs of 16-bit samples from the 'samples' memory
+		// position into the input of the object.
+		FIFOProcessor inputStage = getInputStage();
+		inputStage.putSamples(samples, offset, numSamples);
+		moveFromInputStage(inputStage);
+	}
+
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		// Adds 'numSamples' pcs of floating point samples from the 'samples'
+		// memory position into the input of the object.
+		FIFOProcessor inputStage = getInputStage();
+		inputStage.putSamples(samples, offset, numSamples);
+		moveFromInputStage(inputStage);
+	}
+
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		// Adds 'numSamples' pcs of PCM samples from the 'data' memory
+		// position into the input of the object.
+		FIFOProcessor inputStage = getInputStage();
+		inputStage.putBytes(data, offset, numSamples, format, order);
+		moveFromInputStage(inputStage);
+	}
+
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		// Adds the whole frames of PCM samples remaining in 'data' into the
+		// input of the object.
+		FIFOProcessor inputStage = getInputStage();
+		inputStage.putBytes(data, format);
+		moveFromInputStage(inputStage);
+	}
+
+	/**
+	 * Checks that the object is ready to process samples and returns the
+	 * processing stage new samples are to be put to.
+	 * @return the input stage
+	 */
+	private FIFOProcessor getInputStage() {
 		if (this.bSrateSet == false) {
 			throw new RuntimeException("SoundTouch : Sample rate not defined");
 		} else if (channels == 0) {
 			throw new RuntimeException("SoundTouch : Number of channels not defined");
 		}
 
-		if (SoundTouchSettings.SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER) {
-			if (rate <= 1.0f) {
-				// transpose the rate down, output the transposed sound to tempo
-				// changer buffer
-				assert (output == pTDStretch);
-				pRateTransposer.putSamples(samples);
-				pTDStretch.moveSamples(pRateTransposer);
-			} else {
-				// evaluate the tempo changer, then transpose the rate up,
-				assert (output == pRateTransposer);
-				pTDStretch.putSamples(samples);
-				pRateTransposer.moveSamples(pTDStretch);
-			}
+		if (SoundTouchSettings.SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER && rate <= 1.0f) {
+			// transpose the rate down, output the transposed sound to tempo
+			// changer buffer
+			assert (output == pTDStretch);
+			return pRateTransposer;
+		}
+		// evaluate the tempo changer, then transpose the rate up,
+		assert (output == pRateTransposer);
+		return pTDStretch;
+	}
+
+	/**
+	 * Moves the samples processed by the input stage to the second stage.
+	 * @param inputStage the stage returned by getInputStage()
+	 */
+	private void moveFromInputStage(FIFOProcessor inputStage) {
+		if (inputStage == pRateTransposer) {
+			pTDStretch.moveSamples(pRateTransposer);
 		} else {
-			// evaluate the tempo changer, then transpose the rate up,
-			assert (output == pRateTransposer);
-			pTDStretch.putSamples(samples);
 			pRateTransposer.moveSamples(pTDStretch);
 		}
 	}
@@ -216,14 +450,20 @@ public class SoundTouch extends FIFOProcessor {
 	// stream. This function may introduce additional blank samples in the end
 	// of the sound stream, and thus it's not recommended to call this function
 	// in the middle of a sound stream.
-	void flush() {
+	public void flush() {
 		int i;
 		int nUnprocessed;
 		int nOut;
-		SampleVector buff = new SampleVector(64 * 2); // note: allocate 2*64 to
-														// cater 64 sample
-														// frames of stereo
-														// sound
+		int nBlank;
+		long start;
+
+		start = (metrics != null) ? System.nanoTime() : 0;
+
+		// 64 sample frames of all channels, allocated only when the number of
+		// channels grows
+		if (flushBuffer == null || flushBuffer.length < 64 * channels) {
+			flushBuffer = new int[64 * channels];
+		}
 
 		// check how many samples still await processing, and scale
 		// that by tempo & rate to get expected output sample count
@@ -234,13 +474,14 @@ public class SoundTouch extends FIFOProcessor {
 		nOut += nUnprocessed; // ... and how many we expect there to be in the
 								// end
 
-		Util.memset(buff, 0, 64 * channels);
 		// "Push" the last active samples out from the processing pipeline by
 		// feeding blank samples into the processing pipeline until new,
 		// processed samples appear in the output (not however, more than
 		// 8ksamples in any case)
+		nBlank = 0;
 		for (i = 0; i < 128; i++) {
-			putSamples(buff.size(64));
+			putSamples(flushBuffer, 0, 64);
+			nBlank += 64;
 			if ((int) numSamples() >= nOut) {
 				// Enough new samples have appeared into the output!
 				// As samples come from processing with bigger chunks, now
@@ -254,10 +495,14 @@ public class SoundTouch extends FIFOProcessor {
 		}
 
 		// Clear working buffers
-		pRateTransposer.clear();
+		pRateTransposer.clearInput();
 		pTDStretch.clearInput();
-		// yet leave the 'tempoChanger' output intouched as that's where the
-		// flushed samples are!
+		// yet leave the output of the last stage intouched as that's where
+		// the flushed samples are!
+
+		if (metrics != null) {
+			metrics.flushed(nBlank, numSamples(), System.nanoTime() - start);
+		}
 	}
 
 	/**
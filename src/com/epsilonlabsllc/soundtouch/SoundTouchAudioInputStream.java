@@ -0,0 +1,255 @@
+package com.epsilonlabsllc.soundtouch;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * An audio input stream that processes the sound of another stream with
+ * {@link SoundTouch} as it is read, for use in Java Sound pipelines.<br>
+ * <br>
+ * The source is read lazily: a read only pulls more input when no processed
+ * samples are available, and then only the nominal amount of input that
+ * triggers one processing batch, see {@link SoundTouch#getInputSampleReq()}.
+ * So the memory use and the latency stay bounded regardless of the length of
+ * the source. At the end of the source the last samples are flushed from the
+ * processing pipeline.<br>
+ * <br>
+ * The format of the stream is that of the source, which must be 16-bit or
+ * 24-bit signed PCM or 32-bit float PCM. By default 24-bit and float sources
+ * are processed with floating point samples, so that they keep their
+ * resolution, and 16-bit sources with integer samples. The length of the processed stream
+ * isn't known in advance. The tempo, pitch and rate can be changed while the
+ * stream is being read through {@link #getSoundTouch()}.
+ */
+public class SoundTouchAudioInputStream extends AudioInputStream {
+	private static final String PCM_FLOAT = "PCM_FLOAT";
+
+	private final AudioInputStream source;
+
+	private final SoundTouch soundTouch;
+
+	// Format and byte order of the samples of the source and of this stream
+	private final PCMFormat pcmFormat;
+	private final ByteOrder order;
+
+	// Bytes per sample frame
+	private final int bytesPerFrame;
+
+	// Bytes read from the source but not yet put to the processing pipeline
+	private byte[] inputBuffer;
+	private int inputBytes;
+
+	// Set when the source has ended and the pipeline has been flushed
+	private boolean flushed;
+
+	/**
+	 * Constructor, processes the source with a new {@link SoundTouch} instance
+	 * with the default settings, with floating point samples if the source
+	 * has 24-bit or float samples.
+	 *
+	 * @param source
+	 *            the stream to process
+	 */
+	public SoundTouchAudioInputStream(AudioInputStream source) {
+		this(source, newSoundTouch(source.getFormat()));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param source
+	 *            the stream to process
+	 * @param soundTouch
+	 *            the processing pipeline, with its tempo, pitch and rate set.
+	 *            Its sample rate and number of channels are set from the
+	 *            format of the source.
+	 */
+	public SoundTouchAudioInputStream(AudioInputStream source, SoundTouch soundTouch) {
+		super(source, source.getFormat(), AudioSystem.NOT_SPECIFIED);
+
+		AudioFormat format = source.getFormat();
+
+		this.source = source;
+		this.soundTouch = soundTouch;
+		pcmFormat = getPCMFormat(format);
+		order = format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		bytesPerFrame = pcmFormat.getBytesPerSample() * format.getChannels();
+		if (format.getFrameSize() != bytesPerFrame)
+			throw new IllegalArgumentException("SoundTouchAudioInputStream : unsupported frame size "
+					+ format.getFrameSize());
+
+		soundTouch.setSampleRate((int) format.getSampleRate());
+		soundTouch.setChannels(format.getChannels());
+		inputBuffer = new byte[0];
+	}
+
+	// Returns a pipeline that keeps the resolution of the samples of the format
+	private static SoundTouch newSoundTouch(AudioFormat format) {
+		PCMFormat pcmFormat = getPCMFormat(format);
+
+		return new SoundTouch(false, pcmFormat == PCMFormat.PCM_24 || pcmFormat == PCMFormat.FLOAT_32);
+	}
+
+	// Returns the PCM format matching the audio format
+	private static PCMFormat getPCMFormat(AudioFormat format) {
+		String encoding = format.getEncoding().toString();
+
+		if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED.toString())) {
+			if (format.getSampleSizeInBits() == 16)
+				return PCMFormat.PCM_16;
+			if (format.getSampleSizeInBits() == 24)
+				return PCMFormat.PCM_24;
+		} else if (encoding.equals(PCM_FLOAT) && format.getSampleSizeInBits() == 32) {
+			return PCMFormat.FLOAT_32;
+		}
+		throw new IllegalArgumentException("SoundTouchAudioInputStream : unsupported format " + format);
+	}
+
+	/**
+	 * Returns the processing pipeline, e.g. for changing the tempo while the
+	 * stream is being read.
+	 */
+	public SoundTouch getSoundTouch() {
+		return soundTouch;
+	}
+
+	/**
+	 * Not supported, since a frame has more than one byte.
+	 */
+	@Override
+	public int read() throws IOException {
+		throw new IOException("SoundTouchAudioInputStream : cannot read a single byte if frame size > 1");
+	}
+
+	@Override
+	public int read(byte[] b) throws IOException {
+		return read(b, 0, b.length);
+	}
+
+	/**
+	 * Reads up to 'len' bytes of processed samples. Only whole sample frames
+	 * are read. Blocks until some processed samples are available or the end
+	 * of the stream is reached, but doesn't wait for more than that.
+	 */
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int frames;
+
+		frames = len / bytesPerFrame;
+		if (frames == 0)
+			return 0;
+
+		if (!fill())
+			return -1;
+		frames = soundTouch.receiveBytes(b, off, frames, pcmFormat, order);
+		return frames * bytesPerFrame;
+	}
+
+	/**
+	 * Skips up to 'n' bytes of processed samples, rounded down to whole
+	 * sample frames. The skipped samples are processed, but not copied.
+	 */
+	@Override
+	public long skip(long n) throws IOException {
+		long frames, skipped;
+
+		frames = n / bytesPerFrame;
+		skipped = 0;
+		while (skipped < frames && fill()) {
+			skipped += soundTouch.receiveSamples((int) Math.min(frames - skipped, Integer.MAX_VALUE));
+		}
+		return skipped * bytesPerFrame;
+	}
+
+	/**
+	 * Returns the number of processed bytes that can be read without pulling
+	 * more from the source.
+	 */
+	@Override
+	public int available() throws IOException {
+		return soundTouch.numSamples() * bytesPerFrame;
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	@Override
+	public void mark(int readlimit) {
+	}
+
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("SoundTouchAudioInputStream : mark/reset not supported");
+	}
+
+	/**
+	 * Pulls input from the source until processed samples are available.
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		while (soundTouch.numSamples() == 0) {
+			if (flushed)
+				return false;
+			pull();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads one processing batch worth of samples from the source and puts
+	 * them to the pipeline, or flushes the pipeline at the end of the source.
+	 */
+	private void pull() throws IOException {
+		int frames, size, n;
+
+		frames = Util.max(soundTouch.getInputSampleReq(), 1);
+		size = frames * bytesPerFrame;
+		if (inputBuffer.length < size) {
+			byte[] temp = new byte[size];
+			System.arraycopy(inputBuffer, 0, temp, 0, inputBytes);
+			inputBuffer = temp;
+		}
+
+		// keep reading until the batch is full, so that a short read of the
+		// source doesn't start a smaller batch
+		while (inputBytes < size) {
+			n = source.read(inputBuffer, inputBytes, size - inputBytes);
+			if (n < 0) {
+				// end of the source; an incomplete last frame is dropped
+				if (inputBytes >= bytesPerFrame) {
+					putInput();
+				}
+				inputBytes = 0;
+				soundTouch.flush();
+				flushed = true;
+				return;
+			}
+			inputBytes += n;
+		}
+		putInput();
+	}
+
+	// Puts the whole frames of the input buffer to the pipeline and keeps any
+	// remaining partial frame
+	private void putInput() {
+		int frames, rest;
+
+		frames = inputBytes / bytesPerFrame;
+		soundTouch.putBytes(inputBuffer, 0, frames, pcmFormat, order);
+		rest = inputBytes - frames * bytesPerFrame;
+		System.arraycopy(inputBuffer, frames * bytesPerFrame, inputBuffer, 0, rest);
+		inputBytes = rest;
+	}
+}
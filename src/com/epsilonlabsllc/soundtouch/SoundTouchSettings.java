@@ -4,6 +4,12 @@ public class SoundTouchSettings {
 	public static final String SOUNDTOUCH_VERSION = "1.7.1";
 	public static final long SOUNDTOUCH_VERSION_ID = 10701;
 	public static final boolean SOUNDTOUCH_PREVENT_CLICK_AT_RATE_CROSSOVER = false;
+	// Use the 32-bit accumulating FIR filter routines when they can't
+	// overflow. Can be disabled with -Dsoundtouch.disableInt32FIR=true
+	public static final boolean SOUNDTOUCH_ALLOW_INT32_FIR = !Boolean.getBoolean("soundtouch.disableInt32FIR");
+	// Use the 32-bit accumulating cross-correlation routine for integer
+	// samples. Can be disabled with -Dsoundtouch.disableInt32CrossCorr=true
+	public static final boolean SOUNDTOUCH_ALLOW_INT32_CROSSCORR = !Boolean.getBoolean("soundtouch.disableInt32CrossCorr");
 	// public static boolean useAAFilter = false;
 	// public static int SETTING_AA_FILTER_LENGTH = 1;
 	// public static boolean SETTING_USE_QUICKSEEK = false;
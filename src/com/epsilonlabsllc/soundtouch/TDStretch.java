@@ -1,6 +1,34 @@
 package com.epsilonlabsllc.soundtouch;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 public class TDStretch extends FIFOProcessor {
+	/**
+	 * Algorithms for seeking the best overlapping position
+	 */
+	public enum SeekMode {
+		/** Evaluates every position of the seek window */
+		FULL,
+		/** Hierarchical search with the fixed steps of the scan offset table */
+		QUICK,
+		/**
+		 * Evaluates every position of the seek window at once with fast
+		 * Fourier transforms; same result as FULL, cheaper for long overlap
+		 * and seek windows
+		 */
+		FFT,
+		/** FULL or FFT, whichever is estimated to be cheaper */
+		AUTO,
+		/**
+		 * Searches a decimated mono downmix of the seek window first, then
+		 * refines the best coarse candidates at full resolution; the
+		 * decimation factor is derived from the length of the seek window,
+		 * and reduced for very short overlaps
+		 */
+		DECIMATED
+	}
+
 	/*****************************************************************************
 	 * 
 	 * Constant definitions
@@ -57,7 +85,7 @@ public class TDStretch extends FIFOProcessor {
 	protected float skipFract;
 	protected FIFOSampleBuffer outputBuffer;
 	protected FIFOSampleBuffer inputBuffer;
-	protected boolean bQuickSeek;
+	protected SeekMode seekMode;
 
 	protected int sampleRate;
 	protected int sequenceMs;
@@ -66,8 +94,86 @@ public class TDStretch extends FIFOProcessor {
 	protected boolean bAutoSeqSetting;
 	protected boolean bAutoSeekSetting;
 
+	// Pool the sample arrays are taken from, null = allocate them directly
+	protected SampleBufferPool bufferPool;
+
+	// Sink of the processing measurements, null = nothing is measured
+	protected MetricsSink metrics;
+
+	// Correlation score of the position chosen by the last seek
+	protected double seekCorrelation;
+
+	// Cross-correlation routine used for seeking the best overlapping position
+	protected CrossCorrelation crossCorr;
+
+	// Cross-correlations of the positions scanned by the full seek, reused
+	// while 'seekLength' doesn't grow
+	private double[] seekCorrs;
+
+	// Transform based cross-correlation routine, created when first needed
+	private FFTCrossCorrelation fftCorr;
+
+	// Samples the seek routines correlate the seek window against, and their
+	// number of channels: the mid buffer and 'channels', or mono downmixes
+	// for more than two channels. Set by seekBestOverlapPosition.
+	protected int seekChannels;
+	protected int[] seekMid;
+	protected int seekMidOffset;
+
+	// Mono downmixes of the seek window and the mid buffer for more than two
+	// channels, reused while the lengths don't grow
+	private int[] downmixRef;
+	private int[] downmixMid;
+
+	// Number of coarse positions the decimated seek aims to leave in the seek
+	// window
+	private static final int DECIMATED_POSITIONS = 128;
+	private static final int MAX_DECIMATION = 16;
+	// Decimated overlap is kept at least this long for the coarse
+	// correlation to rank the candidates
+	private static final int MIN_DECIMATED_OVERLAP = 4;
+	// Number of coarse candidates refined at full resolution, and the larger
+	// number refined when the decimated overlap is shorter than
+	// SHORT_DECIMATED_OVERLAP values and ranks them less reliably
+	private static final int DECIMATED_CANDIDATES = 3;
+	private static final int MAX_DECIMATED_CANDIDATES = 8;
+	private static final int SHORT_DECIMATED_OVERLAP = 16;
+
+	// Decimated mono downmixes of the seek window and the mid buffer, and the
+	// best coarse candidates of the decimated seek, reused while the lengths
+	// don't grow
+	private double[] decimatedRef;
+	private double[] decimatedMid;
+	private final int[] candidateOffs = new int[MAX_DECIMATED_CANDIDATES];
+	private final double[] candidateCorrs = new double[MAX_DECIMATED_CANDIDATES];
+
 	public TDStretch() {
-		bQuickSeek = false;
+		this(false);
+	}
+
+	/**
+	 * Constructor
+	 * @param circularBuffers true to use {@link CircularSampleBuffer}s for the
+	 *            input and output buffers
+	 */
+	public TDStretch(boolean circularBuffers) {
+		this(circularBuffers, false);
+	}
+
+	/**
+	 * Constructor
+	 * @param circularBuffers true to use {@link CircularSampleBuffer}s for the
+	 *            input and output buffers
+	 * @param floatSamples true if the subclass processes floating point
+	 *            samples
+	 */
+	protected TDStretch(boolean circularBuffers, boolean floatSamples) {
+		outputBuffer = FIFOSampleBuffer.newInstance(2, circularBuffers, floatSamples);
+		inputBuffer = FIFOSampleBuffer.newInstance(2, circularBuffers, floatSamples);
+		setOutPipe(outputBuffer);
+
+		crossCorr = CrossCorrelation.newInstance(floatSamples);
+		seekMode = SeekMode.FULL;
 		channels = 2;
 
 		pMidBuffer = null;
@@ -91,6 +197,17 @@ public class TDStretch extends FIFOProcessor {
 		return new TDStretch();
 	}
 
+	public static TDStretch newInstance(boolean circularBuffers) {
+		return new TDStretch(circularBuffers);
+	}
+
+	public static TDStretch newInstance(boolean circularBuffers, boolean floatSamples) {
+		if (floatSamples) {
+			return new TDStretchFloat(circularBuffers);
+		}
+		return new TDStretch(circularBuffers);
+	}
+
 	public void setSampleRate(int aSampleRate) {
 		// accept only positive parameter values - if zero or negative, use old
 		// values instead
@@ -112,16 +229,27 @@ public class TDStretch extends FIFOProcessor {
 		overlapLength = newOverlapLength;
 
 		if (overlapLength > prevOvl) {
-			pMidBufferUnaligned = new SampleVector(overlapLength * 2 + 16 / SAMPLE_TYPE_SIZE);
-			// ensure that 'pMidBuffer' is aligned to 16 byte boundary for
-			// efficiency
-			// pMidBuffer = (SAMPLETYPE
-			// *)SOUNDTOUCH_ALIGN_POINTER_16(pMidBufferUnaligned);
-			// We don't need to do this ^
-			clearMidBuffer();
+			reallocateMidBuffer();
 		}
 	}
 
+	// Allocates a cleared mid buffer for 'overlapLength' samples of
+	// 'channels' channels; room for stereo is always kept so that switching
+	// between mono and stereo doesn't reallocate
+	private void reallocateMidBuffer() {
+		if (pMidBufferUnaligned != null) {
+			SampleBufferPool.recycle(bufferPool, pMidBufferUnaligned.getArray());
+		}
+		pMidBufferUnaligned = new SampleVector(SampleBufferPool.newArray(bufferPool, Math.max(channels, 2) * overlapLength));
+		// ensure that 'pMidBuffer' is aligned to 16 byte boundary for
+		// efficiency
+		// pMidBuffer = (SAMPLETYPE
+		// *)SOUNDTOUCH_ALIGN_POINTER_16(pMidBufferUnaligned);
+		// We don't need to do this ^
+		pMidBuffer = pMidBufferUnaligned;
+		clearMidBuffer();
+	}
+
 	// clear cross correlation routine state if necessary
 	protected void clearCrossCorrState() {
 		// default implementation is empty.
@@ -160,36 +288,10 @@ public class TDStretch extends FIFOProcessor {
 		slopingDivider = (newOvl * newOvl - 1) / 3;
 	}
 
-	protected double calcCrossCorr(final SampleVector mixingPos, final SampleVector compare) {
-		long corr;
-		long norm;
-		int i;
-
-		corr = norm = 0;
-		// Same routine for stereo and mono. For stereo, unroll loop for better
-		// efficiency and gives slightly better resolution against rounding.
-		// For mono it same routine, just unrolls loop by factor of 4
-		for (i = 0; i < channels * overlapLength; i += 4) {
-			corr += (mixingPos.get(i) * compare.get(i) + // &nbsp;
-					mixingPos.get(i + 1) * compare.get(i + 1) + // &nbsp;
-					mixingPos.get(i + 2) * compare.get(i + 2) + // &nbsp;
-			mixingPos.get(i + 3) * compare.get(i + 3)); // &nbsp;
-			
-			corr >>= overlapDividerBits;
-		
-			norm += (mixingPos.get(i) * mixingPos.get(i) + // &nbsp;
-					mixingPos.get(i + 1) * mixingPos.get(i + 1) + // &nbsp;
-					mixingPos.get(i + 2) * mixingPos.get(i + 2) + // &nbsp;
-			mixingPos.get(i + 3) * mixingPos.get(i + 3)); // &nbsp;
-			
-			norm >>= overlapDividerBits;
-		}
-
-		// Normalize result by dividing by sqrt(norm) - this step is easiest
-		// done using floating point operation
-		if (norm == 0)
-			norm = 1; // to avoid div by zero
-		return (double) corr / Math.sqrt((double) norm);
+	// Calculates the normalized cross-correlation of the 'seekChannels *
+	// overlapLength' samples at m[mo] against those at c[co].
+	protected double calcCrossCorr(final int[] m, final int mo, final int[] c, final int co) {
+		return crossCorr.calcCrossCorr(m, mo, c, co, seekChannels * overlapLength, overlapDividerBits);
 	}
 
 	// Seeks for the optimal overlap-mixing position. The 'stereo' version of
@@ -200,7 +302,33 @@ public class TDStretch extends FIFOProcessor {
 	// sample sequences are 'most alike', in terms of the highest
 	// cross-correlation
 	// value over the overlapping period
-	protected int seekBestOverlapPositionFull(final SampleVector refPos) {
+	protected int seekBestOverlapPositionFull(final int[] refPos, final int refOffset) {
+		// Calculates the correlation values for all the mixing positions over
+		// the permitted range at once, so that the norm of the mixing window
+		// is updated incrementally instead of being recalculated for every
+		// position
+		crossCorr.calcCrossCorrs(refPos, refOffset, seekMid, seekMidOffset, seekChannels, seekChannels * overlapLength,
+				seekLength, overlapDividerBits, seekCorrs);
+
+		return findBestCorrelation();
+	}
+
+	// Seeks for the optimal overlap-mixing position like
+	// seekBestOverlapPositionFull, calculating the correlation values with
+	// fast Fourier transforms
+	protected int seekBestOverlapPositionFFT(final int[] refPos, final int refOffset) {
+		if (fftCorr == null) {
+			fftCorr = new FFTCrossCorrelation();
+		}
+		fftCorr.calcCrossCorrs(crossCorr, inputBuffer.isFloatSamples(), refPos, refOffset, seekMid, seekMidOffset,
+				seekChannels, seekChannels * overlapLength, seekLength, overlapDividerBits, seekCorrs);
+
+		return findBestCorrelation();
+	}
+
+	// Returns the position of the best correlation value calculated to
+	// 'seekCorrs' by the full seek
+	private int findBestCorrelation() {
 		int bestOffs;
 		double bestCorr, corr;
 		int i;
@@ -212,10 +340,7 @@ public class TDStretch extends FIFOProcessor {
 		// position
 		// over the permitted range.
 		for (i = 0; i < seekLength; i++) {
-			// Calculates correlation value for the mixing position
-			// corresponding
-			// to 'i'
-			corr = calcCrossCorr(refPos.shift(channels * i), pMidBuffer);
+			corr = seekCorrs[i];
 			// heuristic rule to slightly favour values close to mid of the
 			// range
 			double tmp = (double) (2 * i - seekLength) / (double) seekLength;
@@ -231,6 +356,7 @@ public class TDStretch extends FIFOProcessor {
 		// routines).
 		clearCrossCorrState();
 
+		seekCorrelation = bestCorr;
 		return bestOffs;
 	}
 
@@ -242,12 +368,15 @@ public class TDStretch extends FIFOProcessor {
 	// sample sequences are 'most alike', in terms of the highest
 	// cross-correlation
 	// value over the overlapping period
-	protected int seekBestOverlapPositionQuick(final SampleVector refPos) {
+	protected int seekBestOverlapPositionQuick(final int[] refPos, final int refOffset) {
 		int j;
 		int bestOffs;
 		double bestCorr, corr;
 		int scanCount, corrOffset, tempOffset;
 
+		final int[] mid = seekMid;
+		final int midOffset = seekMidOffset;
+
 		bestCorr = Float.MIN_NORMAL;
 		bestOffs = _scanOffsets[0][0];
 		corrOffset = 0;
@@ -271,7 +400,7 @@ public class TDStretch extends FIFOProcessor {
 				// Calculates correlation value for the mixing position
 				// corresponding
 				// to 'tempOffset'
-				corr = (double) calcCrossCorr(refPos.shift(channels * tempOffset), pMidBuffer);
+				corr = (double) calcCrossCorr(refPos, refOffset + seekChannels * tempOffset, mid, midOffset);
 				// heuristic rule to slightly favour values close to mid of the
 				// range
 				double tmp = (double) (2 * tempOffset - seekLength) / seekLength;
@@ -290,30 +419,239 @@ public class TDStretch extends FIFOProcessor {
 		// routines).
 		clearCrossCorrState();
 
+		seekCorrelation = bestCorr;
 		return bestOffs;
 	}
 
-	// Seeks for the optimal overlap-mixing position.
-	protected int seekBestOverlapPosition(final SampleVector refPos) {
-		if (bQuickSeek) {
-			return seekBestOverlapPositionQuick(refPos);
+	// Returns the decimation factor of the decimated seek: a power of two
+	// that leaves about DECIMATED_POSITIONS coarse positions in the seek
+	// window, reduced if the decimated overlap would get too short. The
+	// overlap is compared at full resolution in the fine pass, so the
+	// decimated one only has to rank the coarse candidates.
+	protected int calcDecimationFactor() {
+		int factor;
+
+		factor = Integer.highestOneBit(Math.max(1, seekLength / DECIMATED_POSITIONS));
+		if (factor > MAX_DECIMATION)
+			factor = MAX_DECIMATION;
+		while (factor > 1 && overlapLength / factor < MIN_DECIMATED_OVERLAP) {
+			factor >>= 1;
+		}
+		return factor;
+	}
+
+	// Sums 'count' blocks of 'factor' frames of 'seekChannels' interleaved samples
+	// starting at s[so] to one value per block
+	private void decimate(final int[] s, final int so, int count, int factor, boolean floatSamples, double[] d) {
+		int i, j, p, blockValues;
+		double sum;
+
+		blockValues = factor * seekChannels;
+		assert (so + count * blockValues <= s.length);
+		p = so;
+		for (i = 0; i < count; i++) {
+			sum = 0;
+			if (floatSamples) {
+				for (j = 0; j < blockValues; j++) {
+					sum += Float.intBitsToFloat(s[p + j]);
+				}
+			} else {
+				for (j = 0; j < blockValues; j++) {
+					sum += s[p + j];
+				}
+			}
+			d[i] = sum;
+			p += blockValues;
+		}
+	}
+
+	// Seeks for the optimal overlap-mixing position with a two-resolution
+	// search. The seek window and the mid buffer are first decimated to mono
+	// downmixes, which are correlated at every decimated position. The
+	// neighbourhoods of the best few coarse positions are then scanned at
+	// full resolution.
+	protected int seekBestOverlapPositionDecimated(final int[] refPos, final int refOffset) {
+		int i, j, k, factor, ovl, count, candidates, start, end, bestOffs;
+		double bestCorr, corr, norm, tmp;
+
+		factor = calcDecimationFactor();
+		if (factor == 1) {
+			return seekBestOverlapPositionFull(refPos, refOffset);
+		}
+
+		final int[] mid = seekMid;
+		final int midOffset = seekMidOffset;
+		final boolean floatSamples = inputBuffer.isFloatSamples();
+
+		ovl = overlapLength / factor;
+		count = (seekLength + factor - 1) / factor;
+		candidates = (ovl < SHORT_DECIMATED_OVERLAP) ? MAX_DECIMATED_CANDIDATES : DECIMATED_CANDIDATES;
+		if (decimatedMid == null || decimatedMid.length < ovl) {
+			decimatedMid = new double[ovl];
+		}
+		if (decimatedRef == null || decimatedRef.length < count - 1 + ovl) {
+			decimatedRef = new double[count - 1 + ovl];
+		}
+		final double[] dm = decimatedMid;
+		final double[] dr = decimatedRef;
+		decimate(mid, midOffset, ovl, factor, floatSamples, dm);
+		decimate(refPos, refOffset, count - 1 + ovl, factor, floatSamples, dr);
+
+		for (k = 0; k < candidates; k++) {
+			candidateOffs[k] = -1;
+			candidateCorrs[k] = Double.NEGATIVE_INFINITY;
+		}
+
+		// coarse pass, norm of the decimated mixing window is updated
+		// incrementally
+		norm = 0;
+		for (i = 0; i < ovl; i++) {
+			norm += dr[i] * dr[i];
+		}
+		for (j = 0; j < count; j++) {
+			if (j > 0) {
+				norm -= dr[j - 1] * dr[j - 1];
+				norm += dr[j + ovl - 1] * dr[j + ovl - 1];
+			}
+			corr = 0;
+			for (i = 0; i < ovl; i++) {
+				corr += dr[j + i] * dm[i];
+			}
+			corr /= Math.sqrt((norm < 1e-9) ? 1.0 : norm);
+			// same heuristic as the full resolution search
+			tmp = (double) (2 * j * factor - seekLength) / seekLength;
+			corr = ((corr + 0.1) * (1.0 - 0.25 * tmp * tmp));
+
+			// keep the candidates sorted from the best down
+			if (corr > candidateCorrs[candidates - 1]) {
+				for (k = candidates - 1; k > 0 && corr > candidateCorrs[k - 1]; k--) {
+					candidateCorrs[k] = candidateCorrs[k - 1];
+					candidateOffs[k] = candidateOffs[k - 1];
+				}
+				candidateCorrs[k] = corr;
+				candidateOffs[k] = j;
+			}
+		}
+
+		// fine pass around the candidates
+		bestCorr = Float.MIN_NORMAL;
+		bestOffs = 0;
+		for (k = 0; k < candidates; k++) {
+			if (candidateOffs[k] < 0)
+				break;
+			start = Math.max(0, (candidateOffs[k] - 1) * factor + 1);
+			end = Math.min(seekLength, (candidateOffs[k] + 1) * factor);
+			for (i = start; i < end; i++) {
+				corr = calcCrossCorr(refPos, refOffset + seekChannels * i, mid, midOffset);
+				tmp = (double) (2 * i - seekLength) / seekLength;
+				corr = ((corr + 0.1) * (1.0 - 0.25 * tmp * tmp));
+
+				if (corr > bestCorr) {
+					bestCorr = corr;
+					bestOffs = i;
+				}
+			}
+		}
+		// clear cross correlation routine state if necessary (is so e.g. in MMX
+		// routines).
+		clearCrossCorrState();
+
+		seekCorrelation = bestCorr;
+		return bestOffs;
+	}
+
+	// Averages the channels of 'frames' interleaved frames starting at s[so]
+	// to d
+	private void downmix(final int[] s, final int so, int frames, boolean floatSamples, int[] d) {
+		int i, ch, p;
+		float fSum;
+		long sum;
+
+		assert (so + channels * frames <= s.length);
+		p = so;
+		for (i = 0; i < frames; i++) {
+			if (floatSamples) {
+				fSum = 0;
+				for (ch = 0; ch < channels; ch++) {
+					fSum += Float.intBitsToFloat(s[p + ch]);
+				}
+				d[i] = Float.floatToRawIntBits(fSum / channels);
+			} else {
+				sum = 0;
+				for (ch = 0; ch < channels; ch++) {
+					sum += s[p + ch];
+				}
+				d[i] = (int) (sum / channels);
+			}
+			p += channels;
+		}
+	}
+
+	// Seeks for the optimal overlap-mixing position. Mono and stereo sound is
+	// correlated as such; with more channels the seek routines correlate mono
+	// downmixes of the samples instead, which keeps the seek cost independent
+	// of the number of channels.
+	protected int seekBestOverlapPosition(int[] refPos, int refOffset) {
+		int frames;
+
+		if (channels <= 2) {
+			seekChannels = channels;
+			seekMid = pMidBuffer.getArray();
+			seekMidOffset = pMidBuffer.getOffset();
 		} else {
-			return seekBestOverlapPositionFull(refPos);
+			final boolean floatSamples = inputBuffer.isFloatSamples();
+
+			frames = seekLength + overlapLength;
+			if (downmixRef == null || downmixRef.length < frames) {
+				downmixRef = new int[frames];
+			}
+			if (downmixMid == null || downmixMid.length < overlapLength) {
+				downmixMid = new int[overlapLength];
+			}
+			downmix(refPos, refOffset, frames, floatSamples, downmixRef);
+			downmix(pMidBuffer.getArray(), pMidBuffer.getOffset(), overlapLength, floatSamples, downmixMid);
+			refPos = downmixRef;
+			refOffset = 0;
+			seekChannels = 1;
+			seekMid = downmixMid;
+			seekMidOffset = 0;
+		}
+
+		switch (seekMode) {
+		case QUICK:
+			return seekBestOverlapPositionQuick(refPos, refOffset);
+		case FFT:
+			return seekBestOverlapPositionFFT(refPos, refOffset);
+		case AUTO:
+			if (FFTCrossCorrelation.isCheaper(seekChannels, seekChannels * overlapLength, seekLength)) {
+				return seekBestOverlapPositionFFT(refPos, refOffset);
+			}
+			return seekBestOverlapPositionFull(refPos, refOffset);
+		case DECIMATED:
+			return seekBestOverlapPositionDecimated(refPos, refOffset);
+		default:
+			return seekBestOverlapPositionFull(refPos, refOffset);
 		}
 	}
 
-	// Overlaps samples in 'midBuffer' with the samples in 'input'. The 'Stereo'
-	// version of the routine.
-	protected void overlapStereo(SampleVector poutput, final SampleVector input) {
+	// Overlaps samples in 'midBuffer' with the samples at in[io] and writes
+	// the result to out[oo]. The 'Stereo' version of the routine.
+	protected void overlapStereo(final int[] out, final int oo, final int[] in, final int io) {
 		int i;
 		short temp;
 		int cnt2;
 
+		final int[] mid = pMidBuffer.getArray();
+		final int mo = pMidBuffer.getOffset();
+		assert (oo + 2 * overlapLength <= out.length);
+		assert (io + 2 * overlapLength <= in.length);
+		assert (mo + 2 * overlapLength <= mid.length);
+
 		for (i = 0; i < overlapLength; i++) {
 			temp = (short) (overlapLength - i);
 			cnt2 = 2 * i;
-			poutput.set(cnt2, (input.get(cnt2) * i + pMidBuffer.get(cnt2) * temp) / overlapLength);
-			poutput.set(cnt2 + 1, (input.get(cnt2 + 1) * i + pMidBuffer.get(cnt2 + 1) * temp) / overlapLength);
+			out[oo + cnt2] = (in[io + cnt2] * i + mid[mo + cnt2] * temp) / overlapLength;
+			out[oo + cnt2 + 1] = (in[io + cnt2 + 1] * i + mid[mo + cnt2 + 1] * temp) / overlapLength;
 		}
 	}
 
@@ -322,33 +660,64 @@ public class TDStretch extends FIFOProcessor {
 		return (int) (Math.log(value) / Math.log(2.0) + 0.5);
 	}
 
-	protected void overlapMono(SampleVector pOutput, final SampleVector pInput) {
+	protected void overlapMono(final int[] out, final int oo, final int[] in, final int io) {
 		int i;
 		int m1, m2;
 
+		final int[] mid = pMidBuffer.getArray();
+		final int mo = pMidBuffer.getOffset();
+		assert (oo + overlapLength <= out.length);
+		assert (io + overlapLength <= in.length);
+		assert (mo + overlapLength <= mid.length);
+
 		m1 = 0;
 		m2 = (int) overlapLength;
 
 		for (i = 0; i < overlapLength; i++) {
-			pOutput.set(i, ((pInput.get(i) * m1 + pMidBuffer.get(i) * m2) / overlapLength));
+			out[oo + i] = (in[io + i] * m1 + mid[mo + i] * m2) / overlapLength;
 			m1 += 1;
 			m2 -= 1;
 		}
 	}
 
+	// Overlaps samples in 'midBuffer' with the samples at in[io] and writes
+	// the result to out[oo]. The version of the routine for interleaved
+	// samples of more than two channels.
+	protected void overlapMulti(final int[] out, final int oo, final int[] in, final int io) {
+		int i, ch, p, temp;
+
+		final int[] mid = pMidBuffer.getArray();
+		final int mo = pMidBuffer.getOffset();
+		assert (oo + channels * overlapLength <= out.length);
+		assert (io + channels * overlapLength <= in.length);
+		assert (mo + channels * overlapLength <= mid.length);
+
+		p = 0;
+		for (i = 0; i < overlapLength; i++) {
+			temp = overlapLength - i;
+			for (ch = 0; ch < channels; ch++) {
+				out[oo + p] = (in[io + p] * i + mid[mo + p] * temp) / overlapLength;
+				p++;
+			}
+		}
+	}
+
 	protected void clearMidBuffer() {
-		Util.memset(pMidBuffer, 0, 2 * overlapLength);
+		Util.memset(pMidBuffer, 0, Math.max(channels, 2) * overlapLength);
 	}
 
 	// Overlaps samples in 'midBuffer' with the samples in 'pInputBuffer' at
 	// position of 'ovlPos'.
-	protected final void overlap(SampleVector pOutput, final SampleVector pInput, int ovlPos) {
+	protected final void overlap(int[] pOutput, int outputOffset, final int[] pInput, int inputOffset, int ovlPos) {
 		if (channels == 2) {
 			// stereo sound
-			overlapStereo(pOutput, pInput.shift(2 * ovlPos));
-		} else {
+			overlapStereo(pOutput, outputOffset, pInput, inputOffset + 2 * ovlPos);
+		} else if (channels == 1) {
 			// mono sound.
-			overlapMono(pOutput, pInput.shift(ovlPos));
+			overlapMono(pOutput, outputOffset, pInput, inputOffset + ovlPos);
+		} else {
+			// multichannel sound
+			overlapMulti(pOutput, outputOffset, pInput, inputOffset + channels * ovlPos);
 		}
 	}
 
@@ -374,6 +743,9 @@ public class TDStretch extends FIFOProcessor {
 			seekWindowLength = 2 * overlapLength;
 		}
 		seekLength = (sampleRate * seekWindowMs) / 1000;
+		if (seekCorrs == null || seekCorrs.length < seekLength) {
+			seekCorrs = new double[seekLength];
+		}
 	}
 
 	// / Changes the tempo of the given sound samples.
@@ -383,6 +755,14 @@ public class TDStretch extends FIFOProcessor {
 	protected void processSamples() {
 		int ovlSkip, offset;
 		int temp;
+		int[] in;
+		int inPos, outPos;
+		int numInput, numOutput;
+		long start, now;
+
+		numInput = inputBuffer.numSamples();
+		numOutput = outputBuffer.numSamples();
+		start = 0;
 
 		/*
 		 * Removed this small optimization - can introduce a click to sound when
@@ -397,14 +777,29 @@ public class TDStretch extends FIFOProcessor {
 			// If tempo differs from the normal ('SCALE'), scan for the best
 			// overlapping
 			// position
-			offset = seekBestOverlapPosition(inputBuffer.ptrBegin());
+			in = inputBuffer.getArray();
+			inPos = inputBuffer.ptrBeginOffset();
+			if (metrics != null) {
+				start = System.nanoTime();
+			}
+			offset = seekBestOverlapPosition(in, inPos);
+			if (metrics != null) {
+				now = System.nanoTime();
+				metrics.kernelTime(MetricsSink.Kernel.SEEK, now - start);
+				metrics.sequenceProcessed(offset, seekCorrelation, now - start);
+				start = now;
+			}
 
 			// Mix the samples in the 'inputBuffer' at position of 'offset' with
 			// the
 			// samples in 'midBuffer' using sliding overlapping
 			// ... first partially overlap with the end of the previous sequence
 			// (that's in 'midBuffer')
-			overlap(outputBuffer.ptrEnd((int) overlapLength), inputBuffer.ptrBegin(), (int) offset);
+			outPos = outputBuffer.ptrEndOffset((int) overlapLength);
+			overlap(outputBuffer.getArray(), outPos, in, inPos, (int) offset);
+			if (metrics != null) {
+				metrics.kernelTime(MetricsSink.Kernel.OVERLAP, System.nanoTime() - start);
+			}
 			outputBuffer.putSamples((int) overlapLength);
 
 			// ... then copy sequence samples from 'inputBuffer' to output:
@@ -417,13 +812,13 @@ public class TDStretch extends FIFOProcessor {
 				continue; // just in case, shouldn't really happen
 			}
 
-			outputBuffer.putSamples(inputBuffer.ptrBegin().shift(channels * (offset + overlapLength)).size(temp));
+			outputBuffer.putSamples(in, inPos + channels * (offset + overlapLength), temp);
 
 			// Copies the end of the current sequence from 'inputBuffer' to
 			// 'midBuffer' for being mixed with the beginning of the next
 			// processing sequence and so on
 			assert ((offset + temp + overlapLength * 2) <= (int) inputBuffer.numSamples());
-			Util.memcpy(pMidBuffer, inputBuffer.ptrBegin().shift(channels * (offset + temp + overlapLength)), channels * SAMPLE_TYPE_SIZE * overlapLength);
+			Util.memcpy(pMidBuffer.getArray(), pMidBuffer.getOffset(), in, inPos + channels * (offset + temp + overlapLength), channels * overlapLength);
 
 			// Remove the processed samples from the input buffer. Update
 			// the difference between integer & nominal skip step to 'skipFract'
@@ -434,6 +829,14 @@ public class TDStretch extends FIFOProcessor {
 									// integer skip
 			inputBuffer.receiveSamples((int) ovlSkip);
 		}
+
+		if (metrics != null) {
+			numInput -= inputBuffer.numSamples();
+			numOutput = outputBuffer.numSamples() - numOutput;
+			if (numInput != 0 || numOutput != 0) {
+				metrics.samplesProcessed(MetricsSink.Stage.TDSTRETCH, numInput, numOutput);
+			}
+		}
 	}
 
 	// / Returns the output buffer object
@@ -480,27 +883,97 @@ public class TDStretch extends FIFOProcessor {
 		clearMidBuffer();
 	}
 
-	// / Sets the number of channels, 1 = mono, 2 = stereo
+	// / Sets the number of channels, 1 = mono, 2 = stereo, more for
+	// / interleaved multichannel sound
 	public void setChannels(int numChannels) {
 		assert (numChannels > 0);
 		if (channels == numChannels)
 			return;
-		assert (numChannels == 1 || numChannels == 2);
 
 		channels = numChannels;
 		inputBuffer.setChannels(channels);
 		outputBuffer.setChannels(channels);
+		if (pMidBuffer != null && pMidBuffer.getArray().length - pMidBuffer.getOffset() < channels * overlapLength) {
+			reallocateMidBuffer();
+		}
+	}
+
+	// / Sets the pool the sample arrays are taken from and returned to.
+	// / If null, the arrays are allocated directly.
+	public void setBufferPool(SampleBufferPool pool) {
+		bufferPool = pool;
+		inputBuffer.setBufferPool(pool);
+		outputBuffer.setBufferPool(pool);
+	}
+
+	// / Sets the sink of the processing measurements of this stage and its
+	// / buffers. If null, nothing is measured.
+	public void setMetricsSink(MetricsSink sink) {
+		metrics = sink;
+		inputBuffer.setMetricsSink(sink);
+		outputBuffer.setMetricsSink(sink);
+	}
+
+	// / Returns the memory of the sample buffers to the buffer pool. The
+	// / object must not be used after this call.
+	public void close() {
+		inputBuffer.close();
+		outputBuffer.close();
+		if (pMidBufferUnaligned != null) {
+			SampleBufferPool.recycle(bufferPool, pMidBufferUnaligned.getArray());
+		}
+		pMidBufferUnaligned = null;
+		pMidBuffer = null;
+	}
+
+	// / Sets the allocation policy of the input and output buffers
+	public void setCapacityPolicy(CapacityPolicy policy) {
+		inputBuffer.setCapacityPolicy(policy);
+		outputBuffer.setCapacityPolicy(policy);
+	}
+
+	// / Sets the routine used for calculating the cross-correlation when
+	// / seeking the best overlapping position. It must be one for the sample
+	// / format of this object.
+	public void setCrossCorrelation(CrossCorrelation crossCorrelation) {
+		assert (crossCorrelation != null);
+		crossCorr = crossCorrelation;
+	}
+
+	// / Returns the routine used for calculating the cross-correlation.
+	public CrossCorrelation getCrossCorrelation() {
+		return crossCorr;
 	}
 
 	// / Enables/disables the quick position seeking algorithm. Zero to disable,
 	// / nonzero to enable
 	public void enableQuickSeek(boolean enable) {
-		bQuickSeek = enable;
+		seekMode = enable ? SeekMode.QUICK : SeekMode.FULL;
 	}
 
 	// / Returns nonzero if the quick seeking algorithm is enabled.
 	public boolean isQuickSeekEnabled() {
-		return bQuickSeek;
+		return seekMode == SeekMode.QUICK;
+	}
+
+	/**
+	 * Sets the algorithm for seeking the best overlapping position.
+	 *
+	 * @param mode
+	 *            seek algorithm; {@link SeekMode#FULL} by default
+	 */
+	public void setSeekMode(SeekMode mode) {
+		if (mode == null) {
+			throw new IllegalArgumentException("TDStretch : seek mode must not be null");
+		}
+		seekMode = mode;
+	}
+
+	/**
+	 * @return the algorithm for seeking the best overlapping position
+	 */
+	public SeekMode getSeekMode() {
+		return seekMode;
 	}
 
 	// / Sets routine control parameters. These control are certain time
@@ -582,8 +1055,45 @@ public class TDStretch extends FIFOProcessor {
 	// into
 	// / the input of the object.
 	public void putSamples(SampleVector samples) {
+		putSamples(samples.getArray(), samples.getOffset(), samples.size());
+	}
+
+	@Override
+	public void putSamples(int[] samples, int offset, int numSamples) {
 		// Add the samples into the input buffer
-		inputBuffer.putSamples(samples);
+		inputBuffer.putSamples(samples, offset, numSamples);
+		// Process the samples in input buffer
+		processSamples();
+	}
+
+	@Override
+	public void putSamples(short[] samples, int offset, int numSamples) {
+		// Add the samples into the input buffer
+		inputBuffer.putSamples(samples, offset, numSamples);
+		// Process the samples in input buffer
+		processSamples();
+	}
+
+	@Override
+	public void putSamples(float[] samples, int offset, int numSamples) {
+		// Add the samples into the input buffer
+		inputBuffer.putSamples(samples, offset, numSamples);
+		// Process the samples in input buffer
+		processSamples();
+	}
+
+	@Override
+	public void putBytes(byte[] data, int offset, int numSamples, PCMFormat format, ByteOrder order) {
+		// Add the samples into the input buffer
+		inputBuffer.putBytes(data, offset, numSamples, format, order);
+		// Process the samples in input buffer
+		processSamples();
+	}
+
+	@Override
+	public void putBytes(ByteBuffer data, PCMFormat format) {
+		// Add the samples into the input buffer
+		inputBuffer.putBytes(data, format);
 		// Process the samples in input buffer
 		processSamples();
 	}
@@ -598,4 +1108,23 @@ public class TDStretch extends FIFOProcessor {
 	public int getOutputBatchSize() {
 		return seekWindowLength - overlapLength;
 	}
+
+	// / Returns the worst-case algorithmic latency of the stage in input
+	// / samples, i.e. the most input that can arrive after a sample before
+	// / the sample is output. A processing batch isn't run until 'sampleReq'
+	// / samples have been collected. The end of each sequence is held in the
+	// / mid buffer until the next batch, which comes later than the next
+	// / sequence of input when the skip is longer than a sequence, i.e. when
+	// / the tempo is increased.
+	public int getLatency() {
+		int skip = (int) Math.ceil(nominalSkip);
+
+		return sampleReq + Util.max(skip - (seekWindowLength - overlapLength), 0);
+	}
+
+	// / Returns the number of input samples held in the input buffer and in
+	// / the mid buffer that haven't been output yet
+	public int getBufferedSamples() {
+		return inputBuffer.numSamples() + overlapLength;
+	}
 }
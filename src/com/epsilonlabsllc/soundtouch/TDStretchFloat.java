@@ -0,0 +1,116 @@
+package com.epsilonlabsllc.soundtouch;
+
+/**
+ * Floating point version of {@link TDStretch}. The samples are the raw bit
+ * patterns of floats, as stored in floating point sample buffers. The overlap
+ * length isn't rounded to a power of two, and the overlap routines need no
+ * scaling by shifting. The cross-correlation is calculated by
+ * {@link CrossCorrelationFloat}.
+ */
+public class TDStretchFloat extends TDStretch {
+	public TDStretchFloat() {
+		this(false);
+	}
+
+	/**
+	 * Constructor
+	 * @param circularBuffers true to use {@link CircularSampleBuffer}s for the
+	 *            input and output buffers
+	 */
+	public TDStretchFloat(boolean circularBuffers) {
+		super(circularBuffers, true);
+	}
+
+	// / Calculates overlap period length in samples.
+	// / Floating point version only keeps the length divisible by 8 for the
+	// / unrolled loops.
+	@Override
+	protected void calculateOverlapLength(int aoverlapMs) {
+		int newOvl;
+
+		assert (aoverlapMs >= 0);
+		newOvl = (sampleRate * aoverlapMs) / 1000;
+		if (newOvl < 16)
+			newOvl = 16;
+
+		// must be divisible by 8
+		newOvl -= newOvl % 8;
+
+		acceptNewOverlapLength(newOvl);
+	}
+
+	@Override
+	protected void overlapStereo(final int[] out, final int oo, final int[] in, final int io) {
+		int i, cnt2;
+		float fScale, f1, f2;
+
+		final int[] mid = pMidBuffer.getArray();
+		final int mo = pMidBuffer.getOffset();
+		assert (oo + 2 * overlapLength <= out.length);
+		assert (io + 2 * overlapLength <= in.length);
+		assert (mo + 2 * overlapLength <= mid.length);
+
+		fScale = 1.0f / (float) overlapLength;
+		f1 = 0;
+		f2 = 1.0f;
+
+		for (i = 0; i < overlapLength; i++) {
+			cnt2 = 2 * i;
+			out[oo + cnt2] = Float.floatToRawIntBits(Float.intBitsToFloat(in[io + cnt2]) * f1
+					+ Float.intBitsToFloat(mid[mo + cnt2]) * f2);
+			out[oo + cnt2 + 1] = Float.floatToRawIntBits(Float.intBitsToFloat(in[io + cnt2 + 1]) * f1
+					+ Float.intBitsToFloat(mid[mo + cnt2 + 1]) * f2);
+			f1 += fScale;
+			f2 -= fScale;
+		}
+	}
+
+	@Override
+	protected void overlapMono(final int[] out, final int oo, final int[] in, final int io) {
+		int i;
+		float fScale, f1, f2;
+
+		final int[] mid = pMidBuffer.getArray();
+		final int mo = pMidBuffer.getOffset();
+		assert (oo + overlapLength <= out.length);
+		assert (io + overlapLength <= in.length);
+		assert (mo + overlapLength <= mid.length);
+
+		fScale = 1.0f / (float) overlapLength;
+		f1 = 0;
+		f2 = 1.0f;
+
+		for (i = 0; i < overlapLength; i++) {
+			out[oo + i] = Float.floatToRawIntBits(Float.intBitsToFloat(in[io + i]) * f1 + Float.intBitsToFloat(mid[mo + i]) * f2);
+			f1 += fScale;
+			f2 -= fScale;
+		}
+	}
+
+	@Override
+	protected void overlapMulti(final int[] out, final int oo, final int[] in, final int io) {
+		int i, ch, p;
+		float fScale, f1, f2;
+
+		final int[] mid = pMidBuffer.getArray();
+		final int mo = pMidBuffer.getOffset();
+		assert (oo + channels * overlapLength <= out.length);
+		assert (io + channels * overlapLength <= in.length);
+		assert (mo + channels * overlapLength <= mid.length);
+
+		fScale = 1.0f / (float) overlapLength;
+		f1 = 0;
+		f2 = 1.0f;
+
+		p = 0;
+		for (i = 0; i < overlapLength; i++) {
+			for (ch = 0; ch < channels; ch++) {
+				out[oo + p] = Float.floatToRawIntBits(Float.intBitsToFloat(in[io + p]) * f1
+						+ Float.intBitsToFloat(mid[mo + p]) * f2);
+				p++;
+			}
+			f1 += fScale;
+			f2 -= fScale;
+		}
+	}
+}
@@ -1,5 +1,7 @@
 package com.epsilonlabsllc.soundtouch;
 
+import java.util.Arrays;
+
 public class Util {
 	public static <T> void memcpy(SampleVector dest, SampleVector src, int num) {
 		assert (dest != null);
@@ -9,16 +11,188 @@ public class Util {
 		assert (src.size() >= num);
 		assert (dest.size() >= src.size());
 		
+		memcpy(dest.getArray(), dest.getOffset(), src.getArray(), src.getOffset(), num);
+	}
+
+	/**
+	 * Copies 'num' elements from 'src' starting at index 'srcPos' to 'dest'
+	 * starting at index 'destPos'.
+	 */
+	public static void memcpy(int[] dest, int destPos, int[] src, int srcPos, int num) {
+		assert (dest != null);
+		assert (src != null);
+		assert (num >= 0);
+
+		System.arraycopy(src, srcPos, dest, destPos, num);
+	}
+	
+	/**
+	 * Copies 'num' 16-bit samples from 'src' starting at index 'srcPos' to
+	 * 'dest' starting at index 'destPos', widening them to int.
+	 */
+	public static void shortToInt(int[] dest, int destPos, short[] src, int srcPos, int num) {
+		assert (dest != null);
+		assert (src != null);
+		assert (num >= 0);
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
+		for (int i = 0; i < num; i++) {
+			dest[destPos + i] = src[srcPos + i];
+		}
+	}
+
+	/**
+	 * Copies 'num' samples from 'src' starting at index 'srcPos' to 'dest'
+	 * starting at index 'destPos', saturating them to 16-bit integer limits.
+	 */
+	public static void intToShort(short[] dest, int destPos, int[] src, int srcPos, int num) {
+		int value;
+
+		assert (dest != null);
+		assert (src != null);
+		assert (num >= 0);
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
 		for (int i = 0; i < num; i++) {
-			dest.set(i, src.get(i));
+			value = src[srcPos + i];
+			// saturate to 16 bit integer limits
+			value = (value < -32768) ? -32768 : (value > 32767) ? 32767 : value;
+			dest[destPos + i] = (short) value;
 		}
 	}
 	
-	public static void memset(SampleVector ptr, int value, int num) {
+	/**
+	 * Scale between 16-bit integer samples and floating point samples, which
+	 * are normalized to the range -1.0 .. 1.0.
+	 */
+	public static final float SHORT_SCALE = 32768.0f;
+
+	/**
+	 * Converts a normalized floating point sample to a 16-bit integer sample,
+	 * rounding it and saturating it to 16-bit integer limits.
+	 */
+	public static int floatToShort(float value) {
+		float temp = value * SHORT_SCALE;
+		// saturate to 16 bit integer limits
+		if (temp <= -32768.0f)
+			return -32768;
+		if (temp >= 32767.0f)
+			return 32767;
+		return Math.round(temp);
+	}
+
+	/**
+	 * Scale between 24-bit integer samples and normalized floating point
+	 * samples.
+	 */
+	public static final float INT24_SCALE = 8388608.0f;
+
+	/**
+	 * Converts a normalized floating point sample to a 24-bit integer sample,
+	 * rounding it and saturating it to 24-bit integer limits.
+	 */
+	public static int floatToInt24(float value) {
+		float temp = value * INT24_SCALE;
+		// saturate to 24 bit integer limits
+		if (temp <= -8388608.0f)
+			return -8388608;
+		if (temp >= 8388607.0f)
+			return 8388607;
+		return Math.round(temp);
+	}
+
+	/**
+	 * Copies 'num' normalized floating point samples from 'src' starting at
+	 * index 'srcPos' to 'dest' starting at index 'destPos', converting them to
+	 * 16-bit integer samples.
+	 */
+	public static void floatToInt(int[] dest, int destPos, float[] src, int srcPos, int num) {
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
+		for (int i = 0; i < num; i++) {
+			dest[destPos + i] = floatToShort(src[srcPos + i]);
+		}
+	}
+
+	/**
+	 * Copies 'num' integer samples from 'src' starting at index 'srcPos' to
+	 * 'dest' starting at index 'destPos', converting them to normalized
+	 * floating point samples.
+	 */
+	public static void intToFloat(float[] dest, int destPos, int[] src, int srcPos, int num) {
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
+		for (int i = 0; i < num; i++) {
+			dest[destPos + i] = src[srcPos + i] / SHORT_SCALE;
+		}
+	}
+
+	/**
+	 * Copies 'num' floating point samples from 'src' starting at index
+	 * 'srcPos' to 'dest' starting at index 'destPos' as their raw bit
+	 * patterns, as they are stored in floating point sample buffers.
+	 */
+	public static void floatToBits(int[] dest, int destPos, float[] src, int srcPos, int num) {
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
+		for (int i = 0; i < num; i++) {
+			dest[destPos + i] = Float.floatToRawIntBits(src[srcPos + i]);
+		}
+	}
+
+	/**
+	 * Copies 'num' raw floating point bit patterns from 'src' starting at
+	 * index 'srcPos' to 'dest' starting at index 'destPos' as floats.
+	 */
+	public static void bitsToFloat(float[] dest, int destPos, int[] src, int srcPos, int num) {
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
+		for (int i = 0; i < num; i++) {
+			dest[destPos + i] = Float.intBitsToFloat(src[srcPos + i]);
+		}
+	}
+
+	/**
+	 * Copies 'num' 16-bit samples from 'src' starting at index 'srcPos' to
+	 * 'dest' starting at index 'destPos' as the raw bit patterns of normalized
+	 * floating point samples.
+	 */
+	public static void shortToFloatBits(int[] dest, int destPos, short[] src, int srcPos, int num) {
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
+		for (int i = 0; i < num; i++) {
+			dest[destPos + i] = Float.floatToRawIntBits(src[srcPos + i] / SHORT_SCALE);
+		}
+	}
+
+	/**
+	 * Copies 'num' raw floating point bit patterns from 'src' starting at
+	 * index 'srcPos' to 'dest' starting at index 'destPos' as 16-bit samples,
+	 * saturated to 16-bit integer limits.
+	 */
+	public static void floatBitsToShort(short[] dest, int destPos, int[] src, int srcPos, int num) {
+		assert (destPos + num <= dest.length);
+		assert (srcPos + num <= src.length);
+
 		for (int i = 0; i < num; i++) {
-			ptr.set(i, value);
+			dest[destPos + i] = (short) floatToShort(Float.intBitsToFloat(src[srcPos + i]));
 		}
 	}
+
+	public static void memset(SampleVector ptr, int value, int num) {
+		memset(ptr.getArray(), ptr.getOffset(), value, num);
+	}
+
+	public static void memset(int[] ptr, int pos, int value, int num) {
+		Arrays.fill(ptr, pos, pos + num, value);
+	}
 	
 	public static boolean testFloatEqual(double a, double b) {
 		return Math.abs(a - b) < 1e-10;
@@ -46,8 +220,22 @@ public class Util {
 		return samples;
 	}
 
+	/**
+	 * Copies 'num' elements from 'src' starting at index 'srcPos' to 'dest'
+	 * starting at index 'destPos'. The source and destination ranges may
+	 * overlap; the result is as if the source range was first copied to a
+	 * temporary array.
+	 */
+	public static void memmove(int[] dest, int destPos, int[] src, int srcPos, int num) {
+		assert (dest != null);
+		assert (src != null);
+		assert (num >= 0);
+
+		// System.arraycopy handles overlapping ranges of the same array
+		System.arraycopy(src, srcPos, dest, destPos, num);
+	}
+
 	public static void memmove(SampleVector dest, SampleVector src, int num) {
-		// TODO figure out difference between memmove and memcpy
 		assert (dest != null);
 		assert (src != null);
 		assert (num >= 0);
@@ -55,8 +243,6 @@ public class Util {
 		assert (src.size() >= num);
 		assert (dest.size() >= src.size());
 		
-		for (int i = 0; i < num; i++) {
-			dest.set(i, src.get(i));
-		}
+		memmove(dest.getArray(), dest.getOffset(), src.getArray(), src.getOffset(), num);
 	}
 }